@@ -0,0 +1,691 @@
+package nachos.filesys;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.filesys.*;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * A file system that keeps recently used blocks of the files of another file
+ * system in a kernel buffer cache. Reads of cached blocks are served from
+ * memory, and writes only dirty the cached block; dirty blocks are written
+ * back when they are evicted, when the last open instance of their file is
+ * closed, and periodically by a flush thread.
+ *
+ * <p>
+ * To use it, set <tt>ThreadedKernel.fileSystem</tt> to
+ * <tt>nachos.filesys.CachedFileSystem</tt>. It caches the file system named
+ * by <tt>CachedFileSystem.fileSystem</tt>, or the stub file system if that is
+ * not set. The cache holds <tt>CachedFileSystem.numBlocks</tt> blocks (default
+ * 64) of <tt>CachedFileSystem.blockSize</tt> bytes (default 1024), replaced
+ * in least recently used order, and the flush thread runs every
+ * <tt>CachedFileSystem.flushInterval</tt> ticks (default 100000). A read
+ * served entirely from the cache still waits
+ * <tt>CachedFileSystem.hitDelay</tt> ticks (default 10).
+ *
+ * <p>
+ * Cached blocks of a closed file are kept, so that opening it again, such as
+ * running the same program twice, reads it from memory.
+ *
+ * <p>
+ * Each open file detects sequential reading, and has a read-ahead thread
+ * fetch the blocks following each read before they are asked for, with one
+ * read of the cached file system for each run of blocks. The read-ahead
+ * window opens at the size of a read that follows on from the last one,
+ * doubles each time such a read finds all its blocks cached or being read
+ * ahead, up to <tt>CachedFileSystem.maxReadAhead</tt> blocks (default 8, 0
+ * to disable), and is closed again by a read anywhere else. A read that finds
+ * a block still being read ahead waits for it rather than reading it again.
+ */
+public class CachedFileSystem implements FileSystem, Flushable {
+    /**
+     * Allocate a new buffer cache in front of the configured file system.
+     */
+    public CachedFileSystem() {
+	this(getCachedFileSystem());
+    }
+
+    /**
+     * Allocate a new buffer cache in front of the specified file system.
+     *
+     * @param	fileSystem	the file system to cache.
+     */
+    public CachedFileSystem(FileSystem fileSystem) {
+	Lib.assertTrue(fileSystem != null, "no file system to cache");
+
+	this.fileSystem = fileSystem;
+
+	blockSize = Config.getInteger("CachedFileSystem.blockSize", 1024);
+	numBlocks = Config.getInteger("CachedFileSystem.numBlocks", 64);
+	flushInterval = Config.getInteger("CachedFileSystem.flushInterval",
+					  100000);
+	hitDelay = Config.getInteger("CachedFileSystem.hitDelay", 10);
+	maxReadAhead = Math.min(numBlocks/2,
+				Config.getInteger("CachedFileSystem.maxReadAhead",
+						  8));
+	Lib.assertTrue(blockSize > 0 && numBlocks > 0 && flushInterval > 0 &&
+		       hitDelay > 0 && maxReadAhead >= 0);
+
+	lock = new Lock();
+	blockLoaded = new Condition(lock);
+	blockWritten = new Condition(lock);
+	readAheadWanted = new Condition(lock);
+    }
+
+    private static FileSystem getCachedFileSystem() {
+	String name = Config.getString("CachedFileSystem.fileSystem");
+	if (name != null)
+	    return (FileSystem) Lib.constructObject(name);
+
+	return Machine.stubFileSystem();
+    }
+
+    public OpenFile open(String name, boolean create) {
+	OpenFile file = fileSystem.open(name, create);
+	if (file == null)
+	    return null;
+
+	lock.acquire();
+
+	CachedFile cachedFile = files.get(name);
+	if (cachedFile == null) {
+	    cachedFile = new CachedFile(name);
+	    files.put(name, cachedFile);
+	}
+
+	if (cachedFile.file == null) {
+	    cachedFile.file = file;
+	    cachedFile.length = file.length();
+	}
+	else {
+	    file.close();
+	}
+
+	// creating may have truncated the file
+	if (create) {
+	    dropBlocks(cachedFile);
+	    cachedFile.length = cachedFile.file.length();
+	}
+
+	cachedFile.openCount++;
+
+	lock.release();
+
+	return new CachedOpenFile(cachedFile);
+    }
+
+    public boolean remove(String name) {
+	lock.acquire();
+
+	// instances still open keep the blocks they dirty to themselves
+	CachedFile cachedFile = files.remove(name);
+	if (cachedFile != null && cachedFile.openCount == 0)
+	    dropBlocks(cachedFile);
+
+	lock.release();
+
+	return fileSystem.remove(name);
+    }
+
+    /**
+     * Return the number of bytes in a cache block.
+     *
+     * @return	the block size.
+     */
+    public int getBlockSize() {
+	return blockSize;
+    }
+
+    /**
+     * Write every dirty block back to its file, then flush the cached file
+     * system if it can be flushed.
+     */
+    public void flush() throws IOException {
+	writeBackAll();
+
+	if (fileSystem instanceof Flushable)
+	    ((Flushable) fileSystem).flush();
+    }
+
+    /**
+     * Write every dirty block back to its file.
+     */
+    private void writeBackAll() {
+	lock.acquire();
+
+	// dropped blocks are no longer dirty, so blocks dropped while a
+	// write-back let go of the lock are skipped
+	for (Block block : new ArrayList<Block>(blocks.values())) {
+	    if (block.dirty)
+		writeBack(block);
+	}
+
+	lock.release();
+    }
+
+    private int read(CachedOpenFile openFile, int pos, byte[] buf,
+		     int offset, int length) {
+	if (pos < 0 || length < 0 || offset < 0 || offset+length > buf.length)
+	    return -1;
+
+	CachedFile file = openFile.file;
+
+	lock.acquire();
+
+	length = Math.max(0, Math.min(length, file.length - pos));
+
+	boolean allHits = true, anyMisses = false;
+	int amount = 0;
+	while (amount < length) {
+	    int blockNumber = (pos+amount) / blockSize;
+	    int blockOffset = (pos+amount) % blockSize;
+	    int chunk = Math.min(length-amount, blockSize-blockOffset);
+
+	    Block cached = blocks.get(new BlockKey(file, blockNumber));
+	    if (cached == null || cached.loading)
+		allHits = false;
+	    if (cached == null)
+		anyMisses = true;
+
+	    Block block = getBlock(file, blockNumber, true);
+	    if (block == null)
+		break;
+
+	    System.arraycopy(block.data, blockOffset, buf, offset+amount, chunk);
+	    amount += chunk;
+	}
+
+	if (amount > 0)
+	    readAhead(openFile, pos, amount, !anyMisses);
+
+	lock.release();
+
+	// even a read served from memory takes some time
+	if (allHits)
+	    ThreadedKernel.alarm.waitUntil(hitDelay);
+
+	return (amount == 0 && length > 0) ? -1 : amount;
+    }
+
+    private int write(CachedFile file, int pos, byte[] buf, int offset,
+		      int length) {
+	if (pos < 0 || length < 0 || offset < 0 || offset+length > buf.length)
+	    return -1;
+
+	lock.acquire();
+
+	int amount = 0;
+	while (amount < length) {
+	    int blockNumber = (pos+amount) / blockSize;
+	    int blockOffset = (pos+amount) % blockSize;
+	    int chunk = Math.min(length-amount, blockSize-blockOffset);
+
+	    // a block that is overwritten entirely need not be read first
+	    Block block = getBlock(file, blockNumber, chunk < blockSize);
+	    if (block == null)
+		break;
+
+	    System.arraycopy(buf, offset+amount, block.data, blockOffset, chunk);
+	    block.dirty = true;
+	    amount += chunk;
+	}
+
+	file.length = Math.max(file.length, pos+amount);
+
+	if (amount > 0 && flusher == null) {
+	    flusher = new KThread(new Runnable() {
+		    public void run() { flushLoop(); }
+		});
+	    flusher.setName("buffer cache flusher");
+	    flusher.fork();
+	}
+
+	lock.release();
+
+	return (amount == 0 && length > 0) ? -1 : amount;
+    }
+
+    private void close(CachedFile file) {
+	lock.acquire();
+
+	release(file);
+
+	lock.release();
+    }
+
+    /**
+     * Give up a reference to a file. When the last one is gone, write its
+     * dirty blocks back and close it. Called with the lock held.
+     */
+    private void release(CachedFile file) {
+	Lib.assertTrue(file.openCount > 0);
+
+	// each write-back lets go of the lock, so look for dirty blocks again
+	// after it, and leave them to anyone who opens the file meanwhile
+	if (file.openCount == 1) {
+	    Block block;
+	    while (file.openCount == 1 && (block = getDirtyBlock(file)) != null)
+		writeBack(block);
+	}
+
+	if (--file.openCount == 0) {
+	    file.file.close();
+	    file.file = null;
+
+	    // a removed file can never be opened again
+	    if (files.get(file.name) != file)
+		dropBlocks(file);
+	}
+    }
+
+    /**
+     * Update the read-ahead window of an open file after a read, and queue
+     * the blocks in the window that are not cached. Called with the lock
+     * held.
+     *
+     * @param	openFile	the open file that was read.
+     * @param	pos		the first byte read.
+     * @param	amount		the number of bytes read.
+     * @param	allCached	<tt>true</tt> if every block read was cached or
+     *				being read ahead.
+     */
+    private void readAhead(CachedOpenFile openFile, int pos, int amount,
+			   boolean allCached) {
+	if (maxReadAhead == 0)
+	    return;
+
+	int numRead = (pos+amount-1)/blockSize - pos/blockSize + 1;
+
+	if (pos != openFile.nextPosition)
+	    openFile.window = 0;
+	else if (openFile.window == 0)
+	    openFile.window = Math.min(numRead, maxReadAhead);
+	else if (allCached)
+	    openFile.window = Math.min(openFile.window*2, maxReadAhead);
+
+	openFile.nextPosition = pos+amount;
+
+	CachedFile file = openFile.file;
+	int first = (pos+amount-1)/blockSize + 1;
+	int last = Math.min(first + openFile.window,
+			    Lib.divRoundUp(file.length, blockSize));
+
+	for (int blockNumber=first; blockNumber<last; blockNumber++) {
+	    BlockKey key = new BlockKey(file, blockNumber);
+	    if (blocks.containsKey(key))
+		continue;
+
+	    // evicting can let go of the lock, so check again after it
+	    evict();
+	    if (blocks.containsKey(key))
+		continue;
+
+	    Block block = new Block(file, blockNumber, new byte[blockSize]);
+	    block.loading = true;
+	    blocks.put(key, block);
+
+	    // the file stays open until the block is read
+	    file.openCount++;
+	    readAheadQueue.add(block);
+	}
+
+	if (!readAheadQueue.isEmpty()) {
+	    if (readAheadThread == null) {
+		readAheadThread = new KThread(new Runnable() {
+			public void run() { readAheadLoop(); }
+		    });
+		readAheadThread.setName("buffer cache read-ahead");
+		readAheadThread.fork();
+	    }
+
+	    readAheadWanted.wake();
+	}
+    }
+
+    private void readAheadLoop() {
+	lock.acquire();
+
+	while (true) {
+	    while (readAheadQueue.isEmpty())
+		readAheadWanted.sleep();
+
+	    // read each run of consecutive blocks with one request
+	    ArrayList<Block> run = new ArrayList<Block>();
+	    run.add(readAheadQueue.removeFirst());
+	    while (!readAheadQueue.isEmpty()) {
+		Block last = run.get(run.size()-1);
+		Block next = readAheadQueue.getFirst();
+		if (next.file != last.file || next.number != last.number+1)
+		    break;
+
+		run.add(readAheadQueue.removeFirst());
+	    }
+
+	    Lib.debug(dbgFileSystem, "\treading ahead " + run.size()
+		      + " blocks from block " + run.get(0).number + " of "
+		      + run.get(0).file.name);
+
+	    Machine.stats().numCacheReadAheads += run.size();
+	    load(run);
+
+	    for (Block block : run)
+		release(block.file);
+	}
+    }
+
+    private void flushLoop() {
+	while (true) {
+	    ThreadedKernel.alarm.waitUntil(flushInterval);
+	    writeBackAll();
+	}
+    }
+
+    /**
+     * Return the cached block of a file, reading it in if it is not cached.
+     * Called with the lock held.
+     *
+     * @param	file		the file.
+     * @param	blockNumber	the block of the file.
+     * @param	fill		<tt>false</tt> if the caller will overwrite the
+     *				whole block, so it need not be read.
+     * @return	the block, or <tt>null</tt> if it could not be read.
+     */
+    private Block getBlock(CachedFile file, int blockNumber, boolean fill) {
+	BlockKey key = new BlockKey(file, blockNumber);
+
+	// evicting can let go of the lock, so another thread may have cached
+	// the block by the time there is room for it
+	if (!blocks.containsKey(key))
+	    evict();
+
+	Block block = blocks.get(key);
+	if (block != null) {
+	    Machine.stats().numCacheHits++;
+
+	    // wait for a block being read ahead
+	    while (block.loading)
+		blockLoaded.sleep();
+
+	    return block.failed ? null : block;
+	}
+
+	Machine.stats().numCacheMisses++;
+
+	block = new Block(file, blockNumber, new byte[blockSize]);
+	blocks.put(key, block);
+
+	// blocks at or beyond the end of the file are all zeros
+	if (fill && blockNumber*blockSize < file.length) {
+	    ArrayList<Block> run = new ArrayList<Block>();
+	    run.add(block);
+
+	    block.loading = true;
+	    load(run);
+	}
+
+	return block.failed ? null : block;
+    }
+
+    /**
+     * Read a run of consecutive blocks of a file that are marked as loading,
+     * with one read of the file, and without holding the lock while the file
+     * is read. Called with the lock held.
+     */
+    private void load(ArrayList<Block> run) {
+	CachedFile file = run.get(0).file;
+	int position = run.get(0).number*blockSize;
+
+	byte[] data = (run.size() == 1) ? run.get(0).data
+	    : new byte[run.size()*blockSize];
+
+	lock.release();
+	int amount = file.file.read(position, data, 0, data.length);
+	lock.acquire();
+
+	for (int i=0; i<run.size(); i++) {
+	    Block block = run.get(i);
+
+	    if (amount < 0) {
+		Lib.debug(dbgFileSystem, "\tread failed for block "
+			  + block.number + " of " + file.name);
+
+		block.failed = true;
+		BlockKey key = new BlockKey(file, block.number);
+		if (blocks.get(key) == block)
+		    blocks.remove(key);
+	    }
+	    else {
+		if (run.size() > 1)
+		    System.arraycopy(data, i*blockSize, block.data, 0, blockSize);
+
+		Lib.debug(dbgFileSystem, "\tcached block " + block.number
+			  + " of " + file.name);
+	    }
+
+	    block.loading = false;
+	}
+
+	blockLoaded.wakeAll();
+    }
+
+    /**
+     * Evict least recently used blocks until there is room for one more,
+     * writing dirty ones back. Called with the lock held.
+     */
+    private void evict() {
+	while (blocks.size() >= numBlocks) {
+	    // blocks being read or written are in use
+	    Block eldest = null;
+	    for (Block block : blocks.values()) {
+		if (!block.loading && !block.writing) {
+		    eldest = block;
+		    break;
+		}
+	    }
+
+	    if (eldest == null)
+		break;
+
+	    // the block may be used again while it is written back, so choose
+	    // again afterwards
+	    if (eldest.dirty) {
+		writeBack(eldest);
+		continue;
+	    }
+
+	    blocks.remove(new BlockKey(eldest.file, eldest.number));
+	}
+    }
+
+    /**
+     * Write a dirty block back to its file, without holding the lock while
+     * the file is written. The block is copied first, so that it can still be
+     * read and written meanwhile. Called with the lock held.
+     */
+    private void writeBack(Block block) {
+	// an earlier copy must not land after this one
+	while (block.writing)
+	    blockWritten.sleep();
+
+	if (!block.dirty)
+	    return;
+
+	CachedFile file = block.file;
+	Lib.assertTrue(file.file != null);
+
+	int start = block.number*blockSize;
+	int length = Math.max(0, Math.min(blockSize, file.length - start));
+	byte[] data = new byte[length];
+	System.arraycopy(block.data, 0, data, 0, length);
+
+	block.dirty = false;
+	block.writing = true;
+	Machine.stats().numCacheWriteBacks++;
+
+	// the file stays open until the block is written
+	file.openCount++;
+
+	lock.release();
+	int amount = (length > 0) ? file.file.write(start, data, 0, length) : 0;
+	lock.acquire();
+
+	if (amount < 0)
+	    Lib.debug(dbgFileSystem, "\twrite-back failed for block "
+		      + block.number + " of " + file.name);
+
+	block.writing = false;
+	blockWritten.wakeAll();
+
+	release(file);
+    }
+
+    /**
+     * Return a dirty cached block of a file, or <tt>null</tt> if it has none.
+     * Called with the lock held.
+     */
+    private Block getDirtyBlock(CachedFile file) {
+	for (Block block : blocks.values()) {
+	    if (block.file == file && block.dirty)
+		return block;
+	}
+
+	return null;
+    }
+
+    /**
+     * Discard every cached block of a file, including dirty ones. Called with
+     * the lock held.
+     */
+    private void dropBlocks(CachedFile file) {
+	Iterator<Block> i = blocks.values().iterator();
+	while (i.hasNext()) {
+	    Block block = i.next();
+	    if (block.file == file) {
+		block.dirty = false;
+		i.remove();
+	    }
+	}
+    }
+
+    private class CachedOpenFile extends OpenFileWithPosition {
+	CachedOpenFile(CachedFile file) {
+	    super(CachedFileSystem.this, file.name);
+	    this.file = file;
+	}
+
+	public int read(int pos, byte[] buf, int offset, int length) {
+	    if (file == null)
+		return -1;
+
+	    return CachedFileSystem.this.read(this, pos, buf, offset, length);
+	}
+
+	public int write(int pos, byte[] buf, int offset, int length) {
+	    if (file == null)
+		return -1;
+
+	    return CachedFileSystem.this.write(file, pos, buf, offset, length);
+	}
+
+	public int length() {
+	    return (file == null) ? -1 : file.length;
+	}
+
+	public void close() {
+	    if (file != null) {
+		CachedFileSystem.this.close(file);
+		file = null;
+	    }
+	}
+
+	private CachedFile file;
+	/** The position a sequential read would start at next. */
+	private int nextPosition = 0;
+	/** The number of blocks to read ahead, or 0 if not reading ahead. */
+	private int window = 0;
+    }
+
+    /** The state shared by every open instance of a file. */
+    private static class CachedFile {
+	CachedFile(String name) {
+	    this.name = name;
+	}
+
+	String name;
+	/** The file on the cached file system, while any instance is open. */
+	OpenFile file = null;
+	/** The length of the file, including blocks not yet written back. */
+	int length = 0;
+	int openCount = 0;
+    }
+
+    private static class Block {
+	Block(CachedFile file, int number, byte[] data) {
+	    this.file = file;
+	    this.number = number;
+	    this.data = data;
+	}
+
+	CachedFile file;
+	int number;
+	byte[] data;
+	boolean dirty = false;
+	/** Set while the block is being read from its file. */
+	boolean loading = false;
+	/** Set while a copy of the block is being written to its file. */
+	boolean writing = false;
+	/** Set if the block could not be read. */
+	boolean failed = false;
+    }
+
+    private static class BlockKey {
+	BlockKey(CachedFile file, int number) {
+	    this.file = file;
+	    this.number = number;
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof BlockKey))
+		return false;
+
+	    BlockKey key = (BlockKey) o;
+	    return key.file == file && key.number == number;
+	}
+
+	public int hashCode() {
+	    return System.identityHashCode(file)*31 + number;
+	}
+
+	CachedFile file;
+	int number;
+    }
+
+    private FileSystem fileSystem;
+    private int blockSize, numBlocks, flushInterval, hitDelay, maxReadAhead;
+
+    private Lock lock;
+    private Condition blockLoaded;
+    private Condition blockWritten;
+    private KThread flusher = null;
+
+    private Condition readAheadWanted;
+    private KThread readAheadThread = null;
+    /** The blocks waiting to be read ahead, oldest first. */
+    private LinkedList<Block> readAheadQueue = new LinkedList<Block>();
+
+    /** Every file opened so far, by name. */
+    private HashMap<String, CachedFile> files =
+	new HashMap<String, CachedFile>();
+    /** The cached blocks, least recently used first. */
+    private LinkedHashMap<BlockKey, Block> blocks =
+	new LinkedHashMap<BlockKey, Block>(16, 0.75f, true);
+
+    private static final char dbgFileSystem = 'f';
+}
@@ -0,0 +1,899 @@
+package nachos.filesys;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.filesys.*;
+
+import java.io.Flushable;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A file system stored on the simulated disk. Files are described by inodes,
+ * each holding the file's length and the disk sectors of its blocks: eleven
+ * direct pointers, a single indirect pointer, and a double indirect pointer.
+ * All files are in one directory, itself a file described by inode 0, whose
+ * entries pair a name with an inode number.
+ *
+ * <p>
+ * Sector 0 holds the superblock. It is followed by the free sector bitmap,
+ * then the inode table, then the data sectors. The bitmap and the inode table
+ * are kept in memory once the disk is mounted, and their changed sectors are
+ * written back when a file is closed, when the directory changes, and when
+ * the file system is flushed. A new block is placed in the first free sector
+ * at or after the one following its file's last allocated block, so that a
+ * file written in order is laid out in order, and is read back with one disk
+ * request for each run of consecutive sectors.
+ *
+ * <p>
+ * The disk is mounted when the file system is first used, and formatted if
+ * it does not hold a file system with the same geometry, or if
+ * <tt>InodeFileSystem.format</tt> is set. A new file system has
+ * <tt>InodeFileSystem.numInodes</tt> inodes (default 64), and is filled with
+ * the files named by <tt>InodeFileSystem.copyIn</tt> (a comma separated list),
+ * copied from the stub file system.
+ *
+ * <p>
+ * A file removed while open keeps its inode and blocks until its last open
+ * instance is closed.
+ */
+public class InodeFileSystem implements FileSystem, Flushable {
+    /**
+     * Allocate a new file system on the machine's simulated disk.
+     */
+    public InodeFileSystem() {
+	this(Machine.disk());
+    }
+
+    /**
+     * Allocate a new file system on the specified disk.
+     *
+     * @param	disk	the disk holding the file system.
+     */
+    public InodeFileSystem(SimulatedDisk disk) {
+	Lib.assertTrue(disk != null, "no disk for the inode file system");
+
+	this.disk = new SynchDisk(disk);
+
+	sectorSize = disk.getSectorSize();
+	numSectors = disk.getNumSectors();
+	pointersPerSector = sectorSize/4;
+	Lib.assertTrue(sectorSize >= inodeSize && sectorSize % inodeSize == 0);
+
+	long maxBlocks = numDirect + pointersPerSector
+	    + (long) pointersPerSector*pointersPerSector;
+	maxFileSize = (int) Math.min(Integer.MAX_VALUE, maxBlocks*sectorSize);
+
+	lock = new Lock();
+    }
+
+    public OpenFile open(String name, boolean create) {
+	if (!checkName(name))
+	    return null;
+
+	mount();
+
+	lock.acquire();
+
+	Inode inode = null;
+	int number = lookup(name);
+
+	if (number > 0) {
+	    inode = getInode(number);
+
+	    // creating an existing file truncates it
+	    if (create) {
+		truncate(inode);
+		writeBackMetadata();
+	    }
+	}
+	else if (create) {
+	    number = allocateInode();
+	    if (number > 0) {
+		inode = getInode(number);
+		inode.type = typeFile;
+
+		if (!addEntry(name, number)) {
+		    inode.type = typeFree;
+		    putInode(inode);
+		    inode = null;
+		}
+
+		writeBackMetadata();
+	    }
+	}
+
+	if (inode != null)
+	    inode.openCount++;
+
+	lock.release();
+
+	if (inode == null) {
+	    Lib.debug(dbgFileSystem, "unable to open " + name);
+	    return null;
+	}
+
+	return new InodeOpenFile(name, inode);
+    }
+
+    public boolean remove(String name) {
+	if (!checkName(name))
+	    return false;
+
+	mount();
+
+	lock.acquire();
+
+	int number = lookup(name);
+	if (number > 0) {
+	    removeEntry(name);
+
+	    Inode inode = getInode(number);
+	    inode.removed = true;
+	    putInode(inode);
+
+	    writeBackMetadata();
+	}
+
+	lock.release();
+
+	return (number > 0);
+    }
+
+    /**
+     * Write every changed inode, pointer block, and metadata sector back to
+     * the disk.
+     */
+    public void flush() {
+	lock.acquire();
+
+	if (mounted) {
+	    for (Inode inode : inodes.values())
+		syncInode(inode);
+
+	    writeBackMetadata();
+	}
+
+	lock.release();
+    }
+
+    /**
+     * Mount the disk if it is not mounted yet, formatting it if needed.
+     */
+    private void mount() {
+	lock.acquire();
+
+	boolean formatted = false;
+
+	if (!mounted) {
+	    byte[] superblock = new byte[sectorSize];
+	    disk.readSectors(0, 1, superblock, 0);
+
+	    numInodes = Lib.bytesToInt(superblock, 12);
+	    if (Lib.bytesToInt(superblock, 0) != magic ||
+		Lib.bytesToInt(superblock, 4) != sectorSize ||
+		Lib.bytesToInt(superblock, 8) != numSectors ||
+		numInodes <= 0 ||
+		Config.getBoolean("InodeFileSystem.format", false)) {
+		numInodes = Config.getInteger("InodeFileSystem.numInodes", 64);
+		formatted = true;
+	    }
+
+	    freeMapStart = 1;
+	    freeMapSectors = Lib.divRoundUp(numSectors, sectorSize*8);
+	    inodeTableStart = freeMapStart + freeMapSectors;
+	    inodeTableSectors = Lib.divRoundUp(numInodes, sectorSize/inodeSize);
+	    dataStart = inodeTableStart + inodeTableSectors;
+	    Lib.assertTrue(dataStart < numSectors, "disk too small");
+
+	    freeMap = new byte[freeMapSectors*sectorSize];
+	    inodeTable = new byte[inodeTableSectors*sectorSize];
+
+	    if (formatted) {
+		format(superblock);
+	    }
+	    else {
+		disk.readSectors(freeMapStart, freeMapSectors, freeMap, 0);
+		disk.readSectors(inodeTableStart, inodeTableSectors,
+				 inodeTable, 0);
+	    }
+
+	    rotor = dataStart;
+	    mounted = true;
+
+	    // the directory is always open
+	    getInode(rootInode).openCount++;
+
+	    Lib.debug(dbgFileSystem, (formatted ? "formatted " : "mounted ")
+		      + numSectors + " sectors, " + numInodes + " inodes, data at "
+		      + dataStart);
+	}
+
+	lock.release();
+
+	if (formatted)
+	    copyIn();
+    }
+
+    private void format(byte[] superblock) {
+	Lib.bytesFromInt(superblock, 0, magic);
+	Lib.bytesFromInt(superblock, 4, sectorSize);
+	Lib.bytesFromInt(superblock, 8, numSectors);
+	Lib.bytesFromInt(superblock, 12, numInodes);
+	disk.writeSectors(0, 1, superblock, 0);
+
+	for (int sector=0; sector<dataStart; sector++)
+	    freeMap[sector/8] |= (1 << (sector%8));
+
+	Lib.bytesFromInt(inodeTable, rootInode*inodeSize, typeDirectory);
+
+	disk.writeSectors(freeMapStart, freeMapSectors, freeMap, 0);
+	disk.writeSectors(inodeTableStart, inodeTableSectors, inodeTable, 0);
+    }
+
+    private void copyIn() {
+	String names = Config.getString("InodeFileSystem.copyIn");
+	FileSystem stubFileSystem = Machine.stubFileSystem();
+	if (names == null || stubFileSystem == null)
+	    return;
+
+	for (String name : names.split(",")) {
+	    name = name.trim();
+
+	    OpenFile from = stubFileSystem.open(name, false);
+	    if (from == null) {
+		Lib.debug(dbgFileSystem, "unable to copy in " + name);
+		continue;
+	    }
+
+	    byte[] contents = Lib.loadFile(from);
+	    from.close();
+
+	    OpenFile to = open(name, true);
+	    if (contents != null && to != null)
+		to.write(contents, 0, contents.length);
+	    if (to != null)
+		to.close();
+	}
+    }
+
+    private int read(Inode inode, int pos, byte[] buf, int offset,
+		     int length) {
+	if (pos < 0 || length < 0 || offset < 0 || offset+length > buf.length)
+	    return -1;
+
+	inode.lock.acquire();
+
+	length = Math.max(0, Math.min(length, inode.length - pos));
+	if (length > 0) {
+	    lock.acquire();
+	    int[] sectors = mapRange(inode, pos, length, false);
+	    lock.release();
+
+	    readRange(sectors, pos, buf, offset, length);
+	}
+
+	inode.lock.release();
+
+	return length;
+    }
+
+    private int write(Inode inode, int pos, byte[] buf, int offset,
+		      int length) {
+	if (pos < 0 || length < 0 || offset < 0 || offset+length > buf.length)
+	    return -1;
+
+	inode.lock.acquire();
+
+	int amount = Math.min(length, maxFileSize - pos);
+	if (amount > 0) {
+	    lock.acquire();
+	    boolean[] keep = edgesToKeep(inode, pos, amount);
+	    int[] sectors = mapRange(inode, pos, amount, true);
+	    lock.release();
+
+	    // stop at the first block the disk had no room for
+	    for (int i=0; i<sectors.length; i++) {
+		if (sectors[i] == 0) {
+		    amount = Math.max(0, (pos/sectorSize + i)*sectorSize - pos);
+		    break;
+		}
+	    }
+
+	    writeRange(sectors, pos, buf, offset, amount, keep);
+
+	    if (pos+amount > inode.length) {
+		inode.length = pos+amount;
+		inode.dirty = true;
+	    }
+	}
+
+	inode.lock.release();
+
+	return (amount <= 0 && length > 0) ? -1 : Math.max(0, amount);
+    }
+
+    private void close(Inode inode) {
+	lock.acquire();
+
+	Lib.assertTrue(inode.openCount > 0);
+	inode.openCount--;
+	putInode(inode);
+	writeBackMetadata();
+
+	lock.release();
+    }
+
+    /**
+     * Return the sectors holding the blocks of a range of a file, 0 for each
+     * block with no sector. Called with the lock held.
+     *
+     * @param	inode		the file.
+     * @param	pos		the first byte of the range.
+     * @param	length		the number of bytes in the range.
+     * @param	allocate	<tt>true</tt> to allocate a sector for every
+     *				block that has none, if there is room.
+     * @return	the sector of each block in the range.
+     */
+    private int[] mapRange(Inode inode, int pos, int length,
+			   boolean allocate) {
+	int firstBlock = pos/sectorSize;
+	int lastBlock = (pos+length-1)/sectorSize;
+
+	int[] sectors = new int[lastBlock-firstBlock+1];
+	for (int i=0; i<sectors.length; i++)
+	    sectors[i] = getSector(inode, firstBlock+i, allocate);
+
+	return sectors;
+    }
+
+    private void readRange(int[] sectors, int pos, byte[] buf, int offset,
+			   int length) {
+	byte[] data = new byte[sectors.length*sectorSize];
+
+	transferRuns(sectors, data, false);
+
+	System.arraycopy(data, pos%sectorSize, buf, offset, length);
+    }
+
+    /**
+     * Return whether the first and last blocks of a range to be written are
+     * only partly overwritten and already hold data, which must be kept.
+     * Called with the lock held, before the range is allocated.
+     */
+    private boolean[] edgesToKeep(Inode inode, int pos, int length) {
+	int first = pos/sectorSize;
+	int last = (pos+length-1)/sectorSize;
+
+	boolean keepFirst = (pos%sectorSize != 0 &&
+			     getSector(inode, first, false) != 0);
+	boolean keepLast = ((pos+length)%sectorSize != 0 &&
+			    !(last == first && keepFirst) &&
+			    getSector(inode, last, false) != 0);
+
+	return new boolean[] { keepFirst, keepLast };
+    }
+
+    private void writeRange(int[] sectors, int pos, byte[] buf, int offset,
+			    int length, boolean[] keep) {
+	if (length == 0)
+	    return;
+
+	int numBlocks = Lib.divRoundUp(pos%sectorSize + length, sectorSize);
+	byte[] data = new byte[numBlocks*sectorSize];
+
+	if (keep[0])
+	    disk.readSectors(sectors[0], 1, data, 0);
+	if (keep[1] && (pos+length)%sectorSize != 0)
+	    disk.readSectors(sectors[numBlocks-1], 1, data,
+			     (numBlocks-1)*sectorSize);
+
+	System.arraycopy(buf, offset, data, pos%sectorSize, length);
+
+	int[] written = new int[numBlocks];
+	System.arraycopy(sectors, 0, written, 0, numBlocks);
+	transferRuns(written, data, true);
+    }
+
+    /**
+     * Transfer blocks between a buffer and their sectors, with one disk
+     * request for each run of consecutive sectors. Blocks with no sector
+     * read as zeros.
+     */
+    private void transferRuns(int[] sectors, byte[] data, boolean write) {
+	int i = 0;
+	while (i < sectors.length) {
+	    if (sectors[i] == 0) {
+		i++;
+		continue;
+	    }
+
+	    int count = 1;
+	    while (i+count < sectors.length &&
+		   sectors[i+count] == sectors[i]+count)
+		count++;
+
+	    if (write)
+		disk.writeSectors(sectors[i], count, data, i*sectorSize);
+	    else
+		disk.readSectors(sectors[i], count, data, i*sectorSize);
+
+	    i += count;
+	}
+    }
+
+    /**
+     * Return the sector of a block of a file. Called with the lock held.
+     *
+     * @param	inode		the file.
+     * @param	block		the block of the file.
+     * @param	allocate	<tt>true</tt> to allocate a sector if the block
+     *				has none.
+     * @return	the block's sector, or 0 if it has none.
+     */
+    private int getSector(Inode inode, int block, boolean allocate) {
+	if (block < numDirect) {
+	    if (inode.direct[block] == 0 && allocate) {
+		inode.direct[block] = allocateSector(inode);
+		inode.dirty = true;
+	    }
+	    return inode.direct[block];
+	}
+
+	block -= numDirect;
+	if (block < pointersPerSector) {
+	    if (inode.indirect == 0) {
+		if (!allocate || (inode.indirect = allocateTable(inode)) == 0)
+		    return 0;
+		inode.dirty = true;
+	    }
+	    return getPointer(inode, inode.indirect, block, allocate, false);
+	}
+
+	block -= pointersPerSector;
+	if (inode.doubleIndirect == 0) {
+	    if (!allocate ||
+		(inode.doubleIndirect = allocateTable(inode)) == 0)
+		return 0;
+	    inode.dirty = true;
+	}
+
+	int table = getPointer(inode, inode.doubleIndirect,
+			       block/pointersPerSector, allocate, true);
+	if (table == 0)
+	    return 0;
+
+	return getPointer(inode, table, block%pointersPerSector, allocate,
+			  false);
+    }
+
+    /**
+     * Return an entry of a pointer block, allocating a sector for it if it is
+     * 0 and <tt>allocate</tt> is set. Called with the lock held.
+     */
+    private int getPointer(Inode inode, int tableSector, int index,
+			   boolean allocate, boolean isTable) {
+	int[] table = getTable(inode, tableSector);
+
+	if (table[index] == 0 && allocate) {
+	    table[index] = isTable ? allocateTable(inode) : allocateSector(inode);
+	    if (table[index] != 0)
+		inode.dirtyTables.add(tableSector);
+	}
+
+	return table[index];
+    }
+
+    /**
+     * Return the contents of a pointer block of a file, reading it if it is
+     * not cached. Called with the lock held.
+     */
+    private int[] getTable(Inode inode, int sector) {
+	int[] table = inode.tables.get(sector);
+	if (table != null)
+	    return table;
+
+	byte[] data = new byte[sectorSize];
+	disk.readSectors(sector, 1, data, 0);
+
+	table = new int[pointersPerSector];
+	for (int i=0; i<pointersPerSector; i++)
+	    table[i] = Lib.bytesToInt(data, i*4);
+
+	inode.tables.put(sector, table);
+	return table;
+    }
+
+    /**
+     * Allocate a sector for a new, empty pointer block of a file. Called
+     * with the lock held.
+     *
+     * @return	the sector, or 0 if the disk is full.
+     */
+    private int allocateTable(Inode inode) {
+	int sector = allocateSector(inode);
+	if (sector != 0) {
+	    inode.tables.put(sector, new int[pointersPerSector]);
+	    inode.dirtyTables.add(sector);
+	}
+
+	return sector;
+    }
+
+    /**
+     * Allocate a free sector for a file, near the sector allocated for it
+     * last. Called with the lock held.
+     *
+     * @return	the sector, or 0 if the disk is full.
+     */
+    private int allocateSector(Inode inode) {
+	int hint = (inode.lastSector != 0) ? inode.lastSector+1 : rotor;
+
+	for (int i=0; i<numSectors-dataStart; i++) {
+	    int sector = hint + i;
+	    if (sector >= numSectors)
+		sector = dataStart + (sector-numSectors) % (numSectors-dataStart);
+
+	    if (!isAllocated(sector)) {
+		setAllocated(sector, true);
+
+		inode.lastSector = sector;
+		rotor = (sector+1 < numSectors) ? sector+1 : dataStart;
+		return sector;
+	    }
+	}
+
+	Lib.debug(dbgFileSystem, "disk full");
+	return 0;
+    }
+
+    private boolean isAllocated(int sector) {
+	return (freeMap[sector/8] & (1 << (sector%8))) != 0;
+    }
+
+    private void setAllocated(int sector, boolean allocated) {
+	if (allocated)
+	    freeMap[sector/8] |= (1 << (sector%8));
+	else
+	    freeMap[sector/8] &= ~(1 << (sector%8));
+
+	dirtyMetadata.add(freeMapStart + sector/8/sectorSize);
+    }
+
+    /**
+     * Free every block of a file, leaving it empty. Called with the lock
+     * held.
+     */
+    private void truncate(Inode inode) {
+	for (int i=0; i<numDirect; i++) {
+	    if (inode.direct[i] != 0)
+		setAllocated(inode.direct[i], false);
+	    inode.direct[i] = 0;
+	}
+
+	if (inode.indirect != 0) {
+	    freeTable(inode, inode.indirect);
+	    setAllocated(inode.indirect, false);
+	    inode.indirect = 0;
+	}
+
+	if (inode.doubleIndirect != 0) {
+	    for (int table : getTable(inode, inode.doubleIndirect)) {
+		if (table != 0) {
+		    freeTable(inode, table);
+		    setAllocated(table, false);
+		}
+	    }
+	    setAllocated(inode.doubleIndirect, false);
+	    inode.doubleIndirect = 0;
+	}
+
+	inode.tables.clear();
+	inode.dirtyTables.clear();
+	inode.length = 0;
+	inode.lastSector = 0;
+	inode.dirty = true;
+    }
+
+    private void freeTable(Inode inode, int sector) {
+	for (int pointer : getTable(inode, sector)) {
+	    if (pointer != 0)
+		setAllocated(pointer, false);
+	}
+    }
+
+    /**
+     * Return the in-memory inode for an inode number, loading it from the
+     * inode table if it is not in memory. Called with the lock held.
+     */
+    private Inode getInode(int number) {
+	Inode inode = inodes.get(number);
+	if (inode != null)
+	    return inode;
+
+	inode = new Inode(number);
+
+	int offset = number*inodeSize;
+	inode.type = Lib.bytesToInt(inodeTable, offset);
+	inode.length = Lib.bytesToInt(inodeTable, offset+4);
+	for (int i=0; i<numDirect; i++)
+	    inode.direct[i] = Lib.bytesToInt(inodeTable, offset+8+i*4);
+	inode.indirect = Lib.bytesToInt(inodeTable, offset+8+numDirect*4);
+	inode.doubleIndirect = Lib.bytesToInt(inodeTable,
+					      offset+12+numDirect*4);
+
+	inodes.put(number, inode);
+	return inode;
+    }
+
+    /**
+     * Drop an in-memory inode that is no longer open, writing it back, or
+     * freeing it if its file was removed. Called with the lock held.
+     */
+    private void putInode(Inode inode) {
+	if (inode.openCount > 0)
+	    return;
+
+	if (inode.removed || inode.type == typeFree) {
+	    truncate(inode);
+	    inode.type = typeFree;
+	}
+
+	syncInode(inode);
+	inodes.remove(inode.number);
+    }
+
+    /**
+     * Copy an inode into the inode table, and write its changed pointer
+     * blocks to the disk. Called with the lock held.
+     */
+    private void syncInode(Inode inode) {
+	for (int sector : inode.dirtyTables) {
+	    int[] table = inode.tables.get(sector);
+
+	    byte[] data = new byte[sectorSize];
+	    for (int i=0; i<pointersPerSector; i++)
+		Lib.bytesFromInt(data, i*4, table[i]);
+	    disk.writeSectors(sector, 1, data, 0);
+	}
+	inode.dirtyTables.clear();
+
+	if (!inode.dirty)
+	    return;
+
+	int offset = inode.number*inodeSize;
+	Lib.bytesFromInt(inodeTable, offset, inode.type);
+	Lib.bytesFromInt(inodeTable, offset+4, inode.length);
+	for (int i=0; i<numDirect; i++)
+	    Lib.bytesFromInt(inodeTable, offset+8+i*4, inode.direct[i]);
+	Lib.bytesFromInt(inodeTable, offset+8+numDirect*4, inode.indirect);
+	Lib.bytesFromInt(inodeTable, offset+12+numDirect*4,
+			 inode.doubleIndirect);
+
+	dirtyMetadata.add(inodeTableStart + offset/sectorSize);
+	inode.dirty = false;
+    }
+
+    /**
+     * Write the changed sectors of the free map and the inode table back to
+     * the disk. Called with the lock held.
+     */
+    private void writeBackMetadata() {
+	syncInode(getInode(rootInode));
+
+	for (int sector : dirtyMetadata) {
+	    if (sector < inodeTableStart)
+		disk.writeSectors(sector, 1, freeMap,
+				  (sector-freeMapStart)*sectorSize);
+	    else
+		disk.writeSectors(sector, 1, inodeTable,
+				  (sector-inodeTableStart)*sectorSize);
+	}
+	dirtyMetadata.clear();
+    }
+
+    /**
+     * Allocate a free inode. Called with the lock held.
+     *
+     * @return	the inode number, or -1 if there are none.
+     */
+    private int allocateInode() {
+	for (int number=rootInode+1; number<numInodes; number++) {
+	    if (!inodes.containsKey(number) &&
+		Lib.bytesToInt(inodeTable, number*inodeSize) == typeFree)
+		return number;
+	}
+
+	Lib.debug(dbgFileSystem, "out of inodes");
+	return -1;
+    }
+
+    /**
+     * Return the inode number of a file in the directory. Called with the
+     * lock held.
+     *
+     * @return	the inode number, or 0 if there is no such file.
+     */
+    private int lookup(String name) {
+	byte[] directory = readDirectory();
+
+	int index = findEntry(directory, name);
+	if (index < 0)
+	    return 0;
+
+	return Lib.bytesToInt(directory, index*entrySize);
+    }
+
+    private boolean addEntry(String name, int number) {
+	int index = findEntry(readDirectory(), null);
+	if (index < 0)
+	    index = getInode(rootInode).length / entrySize;
+
+	byte[] entry = new byte[entrySize];
+	Lib.bytesFromInt(entry, 0, number);
+	byte[] nameBytes = name.getBytes();
+	System.arraycopy(nameBytes, 0, entry, 4, nameBytes.length);
+
+	return writeDirectory(index, entry);
+    }
+
+    private void removeEntry(String name) {
+	int index = findEntry(readDirectory(), name);
+	if (index >= 0)
+	    writeDirectory(index, new byte[entrySize]);
+    }
+
+    /**
+     * Return the index of a directory entry, or of the first free entry if
+     * <tt>name</tt> is <tt>null</tt>.
+     */
+    private int findEntry(byte[] directory, String name) {
+	for (int i=0; i<directory.length/entrySize; i++) {
+	    int number = Lib.bytesToInt(directory, i*entrySize);
+
+	    if (name == null) {
+		if (number == 0)
+		    return i;
+	    }
+	    else if (number != 0 &&
+		     Lib.bytesToString(directory, i*entrySize+4,
+				       entrySize-4).equals(name)) {
+		return i;
+	    }
+	}
+
+	return -1;
+    }
+
+    private byte[] readDirectory() {
+	Inode root = getInode(rootInode);
+	byte[] directory = new byte[root.length];
+
+	if (root.length > 0)
+	    readRange(mapRange(root, 0, root.length, false), 0, directory, 0,
+		      root.length);
+
+	return directory;
+    }
+
+    private boolean writeDirectory(int index, byte[] entry) {
+	Inode root = getInode(rootInode);
+	int pos = index*entrySize;
+
+	boolean[] keep = edgesToKeep(root, pos, entrySize);
+	int[] sectors = mapRange(root, pos, entrySize, true);
+	for (int sector : sectors) {
+	    if (sector == 0)
+		return false;
+	}
+
+	writeRange(sectors, pos, entry, 0, entrySize, keep);
+
+	if (pos+entrySize > root.length) {
+	    root.length = pos+entrySize;
+	    root.dirty = true;
+	}
+
+	return true;
+    }
+
+    private static boolean checkName(String name) {
+	if (name.length() == 0 || name.getBytes().length >= entrySize-4)
+	    return false;
+
+	return name.indexOf('\0') < 0;
+    }
+
+    private class InodeOpenFile extends OpenFileWithPosition {
+	InodeOpenFile(String name, Inode inode) {
+	    super(InodeFileSystem.this, name);
+	    this.inode = inode;
+	}
+
+	public int read(int pos, byte[] buf, int offset, int length) {
+	    if (inode == null)
+		return -1;
+
+	    return InodeFileSystem.this.read(inode, pos, buf, offset, length);
+	}
+
+	public int write(int pos, byte[] buf, int offset, int length) {
+	    if (inode == null)
+		return -1;
+
+	    return InodeFileSystem.this.write(inode, pos, buf, offset, length);
+	}
+
+	public int length() {
+	    return (inode == null) ? -1 : inode.length;
+	}
+
+	public void close() {
+	    if (inode != null) {
+		InodeFileSystem.this.close(inode);
+		inode = null;
+	    }
+	}
+
+	private Inode inode;
+    }
+
+    /** An inode in memory, shared by every open instance of its file. */
+    private class Inode {
+	Inode(int number) {
+	    this.number = number;
+	}
+
+	int number;
+	int type = typeFree;
+	int length = 0;
+	int[] direct = new int[numDirect];
+	int indirect = 0, doubleIndirect = 0;
+
+	/** Set when the fields above differ from the inode table. */
+	boolean dirty = false;
+	boolean removed = false;
+	int openCount = 0;
+	/** The sector allocated for this file last, or 0. */
+	int lastSector = 0;
+
+	/** Held while reading or writing the file's data. */
+	Lock lock = new Lock();
+
+	/** The pointer blocks read so far, by sector. */
+	HashMap<Integer, int[]> tables = new HashMap<Integer, int[]>();
+	/** The pointer blocks changed since they were last written. */
+	HashSet<Integer> dirtyTables = new HashSet<Integer>();
+    }
+
+    private SynchDisk disk;
+    private int sectorSize, numSectors, pointersPerSector, maxFileSize;
+
+    private Lock lock;
+    private boolean mounted = false;
+
+    private int numInodes;
+    private int freeMapStart, freeMapSectors;
+    private int inodeTableStart, inodeTableSectors;
+    private int dataStart;
+    private int rotor;
+
+    private byte[] freeMap, inodeTable;
+    /** The free map and inode table sectors changed since last written. */
+    private HashSet<Integer> dirtyMetadata = new HashSet<Integer>();
+
+    /** The inodes in memory, by number. */
+    private HashMap<Integer, Inode> inodes = new HashMap<Integer, Inode>();
+
+    private static final int magic = 0x4E494E44;
+    private static final int inodeSize = 64;
+    private static final int numDirect = 11;
+    private static final int entrySize = 32;
+    private static final int rootInode = 0;
+
+    private static final int typeFree = 0;
+    private static final int typeFile = 1;
+    private static final int typeDirectory = 2;
+
+    private static final char dbgFileSystem = 'f';
+}
@@ -0,0 +1,109 @@
+package nachos.filesys;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.filesys.*;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * A file system that joins several others under one name space. A name of
+ * the form <i>prefix</i><tt>/</tt><i>rest</i>, where <i>prefix</i> is a
+ * mount point, names the file <i>rest</i> on the file system mounted there;
+ * every other name goes to the root file system.
+ *
+ * <p>
+ * <tt>MountFileSystem.mounts</tt> lists the mount points as
+ * <i>prefix</i><tt>:</tt><i>class</i> pairs separated by commas (default
+ * <tt>tmp:nachos.filesys.TmpFileSystem</tt>), and
+ * <tt>MountFileSystem.root</tt> names the root file system's class (default
+ * the stub file system).
+ */
+public class MountFileSystem implements FileSystem, Flushable {
+    /**
+     * Allocate a new file system with the configured mounts.
+     */
+    public MountFileSystem() {
+	String rootName = Config.getString("MountFileSystem.root");
+	if (rootName != null)
+	    root = (FileSystem) Lib.constructObject(rootName);
+	else
+	    root = Machine.stubFileSystem();
+	Lib.assertTrue(root != null, "no root file system");
+
+	String mountList = Config.getString("MountFileSystem.mounts",
+					    "tmp:nachos.filesys.TmpFileSystem");
+	for (String mount : mountList.split(",")) {
+	    if (mount.length() == 0)
+		continue;
+
+	    int colon = mount.indexOf(':');
+	    Lib.assertTrue(colon > 0 && colon < mount.length()-1,
+			   "bad mount " + mount);
+
+	    mount(mount.substring(0, colon),
+		  (FileSystem) Lib.constructObject(mount.substring(colon+1)));
+	}
+    }
+
+    /**
+     * Mount a file system, so that names beginning with <tt>prefix</tt> and a
+     * slash name files on it.
+     *
+     * @param	prefix		the mount point.
+     * @param	fileSystem	the file system to mount.
+     */
+    public void mount(String prefix, FileSystem fileSystem) {
+	Lib.assertTrue(prefix.length() > 0 && prefix.indexOf('/') == -1);
+	Lib.assertTrue(!mounts.containsKey(prefix),
+		       "already mounted on " + prefix);
+
+	Lib.debug(dbgFileSystem, "mounted " + fileSystem.getClass().getName()
+		  + " on " + prefix);
+
+	mounts.put(prefix, fileSystem);
+    }
+
+    public OpenFile open(String name, boolean create) {
+	int slash = name.indexOf('/');
+	if (slash != -1) {
+	    FileSystem fileSystem = mounts.get(name.substring(0, slash));
+	    if (fileSystem != null)
+		return fileSystem.open(name.substring(slash+1), create);
+	}
+
+	return root.open(name, create);
+    }
+
+    public boolean remove(String name) {
+	int slash = name.indexOf('/');
+	if (slash != -1) {
+	    FileSystem fileSystem = mounts.get(name.substring(0, slash));
+	    if (fileSystem != null)
+		return fileSystem.remove(name.substring(slash+1));
+	}
+
+	return root.remove(name);
+    }
+
+    /**
+     * Flush every file system that can be flushed.
+     */
+    public void flush() throws IOException {
+	if (root instanceof Flushable)
+	    ((Flushable) root).flush();
+
+	for (FileSystem fileSystem : mounts.values()) {
+	    if (fileSystem instanceof Flushable)
+		((Flushable) fileSystem).flush();
+	}
+    }
+
+    private FileSystem root;
+    private HashMap<String, FileSystem> mounts =
+	new HashMap<String, FileSystem>();
+
+    private static final char dbgFileSystem = 'f';
+}
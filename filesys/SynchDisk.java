@@ -0,0 +1,328 @@
+package nachos.filesys;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.filesys.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+
+/**
+ * A synchronous interface to the simulated disk. Each call blocks the current
+ * thread until its request is finished.
+ *
+ * <p>
+ * Requests that arrive while the disk is busy wait in a queue, and when the
+ * disk finishes a transfer the next one is chosen by the policy named by
+ * <tt>SynchDisk.policy</tt>:
+ *
+ * <ul>
+ * <li><tt>fcfs</tt>: in the order they arrived.
+ * <li><tt>sstf</tt>: the request nearest the head first.
+ * <li><tt>scan</tt>: the elevator algorithm; the head sweeps up through the
+ * requests above it, then down through those below it, turning around at the
+ * last request in each direction.
+ * <li><tt>clook</tt> (the default): the head sweeps up only; after the
+ * highest request it returns to the lowest one.
+ * </ul>
+ *
+ * <p>
+ * Queued requests in the same direction whose sectors adjoin the chosen one
+ * are merged into it, up to <tt>SynchDisk.maxTransfer</tt> sectors (default
+ * one track), so that they take one transfer instead of several.
+ */
+public class SynchDisk {
+    /**
+     * Allocate a new synchronous disk.
+     *
+     * @param	disk	the disk to use.
+     */
+    public SynchDisk(SimulatedDisk disk) {
+	this.disk = disk;
+
+	String policyName = Config.getString("SynchDisk.policy", "clook");
+	for (policy=0; policy<policyNames.length; policy++) {
+	    if (policyNames[policy].equalsIgnoreCase(policyName))
+		break;
+	}
+	Lib.assertTrue(policy < policyNames.length,
+		       "unknown disk scheduling policy " + policyName);
+
+	maxTransfer = Config.getInteger("SynchDisk.maxTransfer",
+					disk.getSectorsPerTrack());
+	Lib.assertTrue(maxTransfer > 0);
+
+	disk.setInterruptHandler(new Runnable() {
+		public void run() { transferDone(); }
+	    });
+    }
+
+    /**
+     * Return the number of bytes in a sector.
+     *
+     * @return	the sector size.
+     */
+    public int getSectorSize() {
+	return disk.getSectorSize();
+    }
+
+    /**
+     * Return the number of sectors on the disk.
+     *
+     * @return	the number of sectors.
+     */
+    public int getNumSectors() {
+	return disk.getNumSectors();
+    }
+
+    /**
+     * Read a run of consecutive sectors.
+     *
+     * @param	sector	the first sector to read.
+     * @param	count	the number of sectors to read.
+     * @param	data	the buffer to read into.
+     * @param	offset	the offset in <tt>data</tt> of the first byte.
+     */
+    public void readSectors(int sector, int count, byte[] data, int offset) {
+	request(new Request(false, sector, count, data, offset));
+    }
+
+    /**
+     * Write a run of consecutive sectors.
+     *
+     * @param	sector	the first sector to write.
+     * @param	count	the number of sectors to write.
+     * @param	data	the buffer to write from.
+     * @param	offset	the offset in <tt>data</tt> of the first byte.
+     */
+    public void writeSectors(int sector, int count, byte[] data, int offset) {
+	request(new Request(true, sector, count, data, offset));
+    }
+
+    private void request(Request request) {
+	Machine.stats().numDiskRequests++;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	queue.add(request);
+	if (transfer == null)
+	    startTransfer();
+
+	Machine.interrupt().restore(intStatus);
+
+	request.done.P();
+    }
+
+    /**
+     * Choose the next request, merge its neighbours into it, and start the
+     * transfer. Called with interrupts disabled.
+     */
+    private void startTransfer() {
+	Lib.assertTrue(transfer == null && !queue.isEmpty());
+
+	Request first = choose();
+	queue.remove(first);
+
+	transfer = new ArrayList<Request>();
+	transfer.add(first);
+
+	int start = first.sector, end = first.sector+first.count;
+	for (boolean merged = true; merged; ) {
+	    merged = false;
+
+	    for (Request request : queue) {
+		if (request.write != first.write ||
+		    end-start + request.count > maxTransfer)
+		    continue;
+
+		if (request.sector == end)
+		    end += request.count;
+		else if (request.sector+request.count == start)
+		    start = request.sector;
+		else
+		    continue;
+
+		queue.remove(request);
+		transfer.add(request);
+		merged = true;
+		break;
+	    }
+	}
+
+	Machine.stats().numDiskTransfers++;
+
+	if (transfer.size() == 1) {
+	    transferData = first.data;
+	    transferOffset = first.offset;
+	}
+	else {
+	    Collections.sort(transfer, new Comparator<Request>() {
+		    public int compare(Request a, Request b) {
+			return a.sector - b.sector;
+		    }
+		});
+
+	    Lib.debug(dbgDisk, "merged " + transfer.size() + " requests into "
+		      + (end-start) + " sectors at " + start);
+
+	    transferData = new byte[(end-start)*getSectorSize()];
+	    transferOffset = 0;
+
+	    if (first.write) {
+		for (Request request : transfer)
+		    System.arraycopy(request.data, request.offset,
+				     transferData,
+				     (request.sector-start)*getSectorSize(),
+				     request.count*getSectorSize());
+	    }
+	}
+
+	if (start < headSector)
+	    movingUp = false;
+	else if (start > headSector)
+	    movingUp = true;
+	headSector = end;
+
+	transferStartTime = Machine.timer().getTime();
+
+	if (first.write)
+	    disk.writeRequest(start, end-start, transferData, transferOffset);
+	else
+	    disk.readRequest(start, end-start, transferData, transferOffset);
+    }
+
+    /**
+     * Return the queued request the policy would serve next.
+     */
+    private Request choose() {
+	Request best = null;
+
+	switch (policy) {
+	case policyFCFS:
+	    best = queue.getFirst();
+	    break;
+
+	case policySSTF:
+	    for (Request request : queue) {
+		if (best == null || Math.abs(request.sector - headSector) <
+		    Math.abs(best.sector - headSector))
+		    best = request;
+	    }
+	    break;
+
+	case policySCAN:
+	    best = nextInDirection(movingUp);
+	    if (best == null)
+		best = nextInDirection(!movingUp);
+	    break;
+
+	case policyCLOOK:
+	    best = nextInDirection(true);
+	    if (best == null) {
+		for (Request request : queue) {
+		    if (best == null || request.sector < best.sector)
+			best = request;
+		}
+	    }
+	    break;
+	}
+
+	return best;
+    }
+
+    /**
+     * Return the queued request nearest the head in the specified
+     * direction, or <tt>null</tt> if there are none that way.
+     */
+    private Request nextInDirection(boolean up) {
+	Request best = null;
+
+	for (Request request : queue) {
+	    if (up ? (request.sector < headSector)
+		: (request.sector > headSector))
+		continue;
+
+	    if (best == null || (up ? (request.sector < best.sector)
+				 : (request.sector > best.sector)))
+		best = request;
+	}
+
+	return best;
+    }
+
+    private void transferDone() {
+	Lib.assertTrue(transfer != null);
+
+	long time = Machine.timer().getTime();
+	int start = transfer.get(0).sector;
+
+	Machine.stats().diskBusyTicks += time - transferStartTime;
+
+	for (Request request : transfer) {
+	    if (transfer.size() > 1 && !request.write)
+		System.arraycopy(transferData,
+				 (request.sector-start)*getSectorSize(),
+				 request.data, request.offset,
+				 request.count*getSectorSize());
+
+	    long latency = time - request.startTime;
+	    Machine.stats().diskRequestTicks += latency;
+	    Machine.stats().maxDiskRequestTicks =
+		Math.max(Machine.stats().maxDiskRequestTicks, latency);
+
+	    request.done.V();
+	}
+
+	transfer = null;
+	transferData = null;
+
+	if (!queue.isEmpty())
+	    startTransfer();
+    }
+
+    private static class Request {
+	Request(boolean write, int sector, int count, byte[] data, int offset) {
+	    this.write = write;
+	    this.sector = sector;
+	    this.count = count;
+	    this.data = data;
+	    this.offset = offset;
+	}
+
+	boolean write;
+	int sector, count;
+	byte[] data;
+	int offset;
+
+	long startTime = Machine.timer().getTime();
+	Semaphore done = new Semaphore(0);
+    }
+
+    private SimulatedDisk disk;
+    private int policy;
+    private int maxTransfer;
+
+    /** The requests waiting for the disk, in the order they arrived. */
+    private LinkedList<Request> queue = new LinkedList<Request>();
+    /** The requests in the transfer in progress, or <tt>null</tt>. */
+    private ArrayList<Request> transfer = null;
+    private byte[] transferData;
+    private int transferOffset;
+    private long transferStartTime;
+
+    /** The sector following the last one transferred. */
+    private int headSector = 0;
+    private boolean movingUp = true;
+
+    private static final int policyFCFS = 0;
+    private static final int policySSTF = 1;
+    private static final int policySCAN = 2;
+    private static final int policyCLOOK = 3;
+    private static final String[] policyNames = {
+	"fcfs", "sstf", "scan", "clook"
+    };
+
+    private static final char dbgDisk = 'd';
+}
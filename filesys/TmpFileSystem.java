@@ -0,0 +1,243 @@
+package nachos.filesys;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.filesys.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A file system kept entirely in memory, for scratch files. Its contents are
+ * lost when Nachos exits. Files are stored in pages of <tt>pageSize</tt>
+ * bytes, allocated as they are written, so a file only takes the memory its
+ * written pages need.
+ *
+ * <p>
+ * Reads and writes take no simulated disk time. Since
+ * <tt>Lib.strictReadFile()</tt> requires reads to take time, programs to be
+ * run should not be kept here.
+ *
+ * <p>
+ * <tt>TmpFileSystem.maxSize</tt> (default 1M) limits the bytes of pages all
+ * files may hold, and <tt>TmpFileSystem.maxFiles</tt> (default 64) limits the
+ * number of files. A write that would go past the size limit writes what
+ * fits. A file removed while open keeps its pages until it is last closed.
+ */
+public class TmpFileSystem implements FileSystem {
+    /**
+     * Allocate a new, empty in-memory file system.
+     */
+    public TmpFileSystem() {
+	maxPages = Config.getInteger("TmpFileSystem.maxSize", 1 << 20)
+	    / pageSize;
+	maxFiles = Config.getInteger("TmpFileSystem.maxFiles", 64);
+	Lib.assertTrue(maxPages >= 0 && maxFiles >= 0);
+
+	lock = new Lock();
+    }
+
+    public OpenFile open(String name, boolean create) {
+	if (name.length() == 0)
+	    return null;
+
+	lock.acquire();
+
+	TmpFile file = files.get(name);
+	if (file == null) {
+	    if (create && files.size() < maxFiles) {
+		file = new TmpFile();
+		files.put(name, file);
+	    }
+	}
+	else if (create) {
+	    truncate(file);
+	}
+
+	if (file != null)
+	    file.openCount++;
+
+	lock.release();
+
+	return (file == null) ? null : new TmpOpenFile(name, file);
+    }
+
+    public boolean remove(String name) {
+	lock.acquire();
+
+	TmpFile file = files.remove(name);
+	if (file != null && file.openCount == 0)
+	    truncate(file);
+
+	lock.release();
+
+	return (file != null);
+    }
+
+    /**
+     * Return the number of bytes of pages the files hold.
+     *
+     * @return	the number of bytes in use.
+     */
+    public int getUsedSize() {
+	return numPages*pageSize;
+    }
+
+    private int read(TmpFile file, int pos, byte[] buf, int offset,
+		     int length) {
+	if (pos < 0 || length < 0 || offset < 0 || offset+length > buf.length)
+	    return -1;
+
+	lock.acquire();
+
+	length = Math.max(0, Math.min(length, file.length - pos));
+
+	int amount = 0;
+	while (amount < length) {
+	    int pageOffset = (pos+amount) % pageSize;
+	    int chunk = Math.min(length-amount, pageSize-pageOffset);
+
+	    // pages never written are holes of zeros
+	    byte[] page = getPage(file, (pos+amount) / pageSize, false);
+	    if (page != null)
+		System.arraycopy(page, pageOffset, buf, offset+amount, chunk);
+	    else
+		java.util.Arrays.fill(buf, offset+amount, offset+amount+chunk,
+				      (byte) 0);
+
+	    amount += chunk;
+	}
+
+	lock.release();
+
+	return amount;
+    }
+
+    private int write(TmpFile file, int pos, byte[] buf, int offset,
+		      int length) {
+	if (pos < 0 || length < 0 || offset < 0 || offset+length > buf.length)
+	    return -1;
+
+	// no file can be longer than the whole file system
+	if (pos+length < 0 || pos+length > (long) maxPages*pageSize)
+	    return -1;
+
+	lock.acquire();
+
+	int amount = 0;
+	while (amount < length) {
+	    int pageOffset = (pos+amount) % pageSize;
+	    int chunk = Math.min(length-amount, pageSize-pageOffset);
+
+	    byte[] page = getPage(file, (pos+amount) / pageSize, true);
+	    if (page == null)
+		break;
+
+	    System.arraycopy(buf, offset+amount, page, pageOffset, chunk);
+	    amount += chunk;
+	}
+
+	file.length = Math.max(file.length, pos+amount);
+
+	lock.release();
+
+	if (amount < length)
+	    Lib.debug(dbgFileSystem, "tmpfs full");
+
+	return (amount == 0 && length > 0) ? -1 : amount;
+    }
+
+    private void close(TmpFile file) {
+	lock.acquire();
+
+	Lib.assertTrue(file.openCount > 0);
+	if (--file.openCount == 0 && !files.containsValue(file))
+	    truncate(file);
+
+	lock.release();
+    }
+
+    /**
+     * Return a page of a file, allocating it if <tt>allocate</tt> is set and
+     * there is room. Called with the lock held.
+     */
+    private byte[] getPage(TmpFile file, int pageNumber, boolean allocate) {
+	while (file.pages.size() <= pageNumber) {
+	    if (!allocate)
+		return null;
+	    file.pages.add(null);
+	}
+
+	byte[] page = file.pages.get(pageNumber);
+	if (page == null && allocate && numPages < maxPages) {
+	    page = new byte[pageSize];
+	    file.pages.set(pageNumber, page);
+	    numPages++;
+	}
+
+	return page;
+    }
+
+    /**
+     * Free every page of a file. Called with the lock held.
+     */
+    private void truncate(TmpFile file) {
+	for (byte[] page : file.pages) {
+	    if (page != null)
+		numPages--;
+	}
+
+	file.pages.clear();
+	file.length = 0;
+    }
+
+    private class TmpOpenFile extends OpenFileWithPosition {
+	TmpOpenFile(String name, TmpFile file) {
+	    super(TmpFileSystem.this, name);
+	    this.file = file;
+	}
+
+	public int read(int pos, byte[] buf, int offset, int length) {
+	    if (file == null)
+		return -1;
+
+	    return TmpFileSystem.this.read(file, pos, buf, offset, length);
+	}
+
+	public int write(int pos, byte[] buf, int offset, int length) {
+	    if (file == null)
+		return -1;
+
+	    return TmpFileSystem.this.write(file, pos, buf, offset, length);
+	}
+
+	public int length() {
+	    return (file == null) ? -1 : file.length;
+	}
+
+	public void close() {
+	    if (file != null) {
+		TmpFileSystem.this.close(file);
+		file = null;
+	    }
+	}
+
+	private TmpFile file;
+    }
+
+    private static class TmpFile {
+	/** The file's pages, <tt>null</tt> where none has been written. */
+	ArrayList<byte[]> pages = new ArrayList<byte[]>();
+	int length = 0;
+	int openCount = 0;
+    }
+
+    private int maxPages, maxFiles;
+    private int numPages = 0;
+
+    private Lock lock;
+    private HashMap<String, TmpFile> files = new HashMap<String, TmpFile>();
+
+    private static final int pageSize = Processor.pageSize;
+    private static final char dbgFileSystem = 'f';
+}
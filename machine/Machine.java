@@ -185,6 +185,13 @@ public final class Machine {
 	if (Config.getBoolean("Machine.stubFileSystem"))
 	    stubFileSystem = new StubFileSystem(privilege, testDirectory);
 
+	if (Config.getBoolean("Machine.disk")) {
+	    String imageName = Config.getString("SimulatedDisk.image",
+						"nachos.disk");
+	    disk = new SimulatedDisk(privilege,
+				     new File(testDirectory, imageName));
+	}
+
 	if (Config.getBoolean("Machine.networkLink"))
 	    networkLink = new NetworkLink(privilege);
     }
@@ -337,6 +344,13 @@ public final class Machine {
      */
     public static FileSystem stubFileSystem() { return stubFileSystem; }
     
+    /**
+     * Return the simulated disk.
+     *
+     * @return	the simulated disk, or <tt>null</tt> if it is not present.
+     */
+    public static SimulatedDisk disk() { return disk; }
+    
     /**
      * Return the network link.
      *
@@ -351,12 +365,21 @@ public final class Machine {
      */
     public static AutoGrader autoGrader() { return autoGrader; }
 
+    /**
+     * Return the runtime statistics, so that the kernel can account for
+     * events the hardware does not see, such as TLB flushes.
+     *
+     * @return	the runtime statistics.
+     */
+    public static Stats stats() { return stats; }
+
     private static Interrupt interrupt = null;
     private static Timer timer = null;
     private static ElevatorBank bank = null;
     private static Processor processor = null;
     private static SerialConsole console = null;
     private static FileSystem stubFileSystem = null;
+    private static SimulatedDisk disk = null;
     private static NetworkLink networkLink = null;
     private static AutoGrader autoGrader = null;
 
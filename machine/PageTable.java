@@ -0,0 +1,453 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.machine.*;
+
+/**
+ * A two-level page table covering the whole 32-bit virtual address space.
+ * The virtual page number is split into a directory index and a leaf index.
+ * Leaves of <tt>leafSize</tt> translation entries are only allocated when a
+ * page in their range is mapped, and are freed again when their last page is
+ * unmapped, so the size of the table follows the number of mapped pages
+ * rather than the range of addresses they span.
+ *
+ * <p>
+ * Each entry can be read and written as a packed page table entry: an
+ * <tt>int</tt> holding the physical page number above <tt>pteShift</tt> and
+ * the <tt>pteValid</tt>, <tt>pteReadOnly</tt>, <tt>pteUsed</tt>,
+ * <tt>pteDirty</tt>, and <tt>pteLarge</tt> bits, with <tt>ptePresent</tt> set
+ * in every entry that exists. The virtual page number is the entry's index.
+ * A packed table (<tt>PageTable.packed</tt>, default false) stores its leaves
+ * as arrays of these words instead of <tt>TranslationEntry</tt> objects.
+ *
+ * <p>
+ * <tt>get()</tt> and <tt>put()</tt> copy whole entries in and out as
+ * <tt>TranslationEntry</tt> objects; changing a returned entry does not
+ * change the table until it is put back. The single-field accessors avoid the
+ * copy, and in an unpacked table work on the stored entry directly.
+ *
+ * <p>
+ * The processor walks this table itself when it is installed with
+ * <tt>Processor.setPageTable(PageTable)</tt>.
+ */
+public final class PageTable {
+    /**
+     * Allocate a new, empty page table, packed if <tt>PageTable.packed</tt>
+     * is set.
+     */
+    public PageTable() {
+	this(Config.getBoolean("PageTable.packed", false));
+    }
+
+    /**
+     * Allocate a new, empty page table.
+     *
+     * @param	packed	<tt>true</tt> to store entries as packed words.
+     */
+    public PageTable(boolean packed) {
+	if (packed)
+	    packedLeaves = new int[directorySize][];
+	else
+	    entryLeaves = new TranslationEntry[directorySize][];
+
+	leafCounts = new int[directorySize];
+    }
+
+    /**
+     * Test whether this table stores its entries as packed words.
+     *
+     * @return	<tt>true</tt> if this table is packed.
+     */
+    public boolean isPacked() {
+	return packedLeaves != null;
+    }
+
+    /**
+     * Return the packed page table entry for a virtual page.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the packed entry, or 0 if the page has no entry.
+     */
+    public int read(int vpn) {
+	if (vpn < 0 || vpn >= Processor.maxPages)
+	    return 0;
+
+	int dir = vpn >>> leafBits;
+	int index = vpn & (leafSize-1);
+
+	if (packedLeaves != null) {
+	    int[] leaf = packedLeaves[dir];
+	    return (leaf == null) ? 0 : leaf[index];
+	}
+
+	TranslationEntry[] leaf = entryLeaves[dir];
+	if (leaf == null || leaf[index] == null)
+	    return 0;
+
+	return pack(leaf[index]);
+    }
+
+    /**
+     * Set the packed page table entry for a virtual page, allocating a leaf if
+     * needed. Writing 0 removes the entry, and frees the leaf if it has no
+     * entries left.
+     *
+     * @param	vpn	the virtual page number.
+     * @param	pte	the packed entry, or 0.
+     */
+    public void write(int vpn, int pte) {
+	Lib.assertTrue(vpn >= 0 && vpn < Processor.maxPages);
+	Lib.assertTrue(pte == 0 || (pte & ptePresent) != 0);
+
+	int dir = vpn >>> leafBits;
+	int index = vpn & (leafSize-1);
+	boolean present;
+
+	if (packedLeaves != null) {
+	    int[] leaf = packedLeaves[dir];
+	    if (leaf == null) {
+		if (pte == 0)
+		    return;
+
+		leaf = packedLeaves[dir] = new int[leafSize];
+		numLeaves++;
+	    }
+
+	    present = (leaf[index] != 0);
+	    leaf[index] = pte;
+	}
+	else {
+	    TranslationEntry[] leaf = entryLeaves[dir];
+	    if (leaf == null) {
+		if (pte == 0)
+		    return;
+
+		leaf = entryLeaves[dir] = new TranslationEntry[leafSize];
+		numLeaves++;
+	    }
+
+	    TranslationEntry entry = leaf[index];
+	    present = (entry != null);
+
+	    if (pte == 0) {
+		leaf[index] = null;
+	    }
+	    else {
+		if (entry == null)
+		    entry = leaf[index] = new TranslationEntry();
+
+		entry.vpn = vpn;
+		entry.ppn = pte >> pteShift;
+		entry.valid = (pte & pteValid) != 0;
+		entry.readOnly = (pte & pteReadOnly) != 0;
+		entry.used = (pte & pteUsed) != 0;
+		entry.dirty = (pte & pteDirty) != 0;
+		entry.large = (pte & pteLarge) != 0;
+	    }
+	}
+
+	if (!present && pte != 0) {
+	    leafCounts[dir]++;
+	}
+	else if (present && pte == 0 && --leafCounts[dir] == 0) {
+	    if (packedLeaves != null)
+		packedLeaves[dir] = null;
+	    else
+		entryLeaves[dir] = null;
+	    numLeaves--;
+	}
+    }
+
+    /**
+     * Return a copy of the translation entry for a virtual page.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	a copy of the entry for the page, or <tt>null</tt> if there is
+     *		none.
+     */
+    public TranslationEntry get(int vpn) {
+	int pte = read(vpn);
+	if (pte == 0)
+	    return null;
+
+	TranslationEntry entry =
+	    new TranslationEntry(vpn, pte >> pteShift,
+				 (pte & pteValid) != 0,
+				 (pte & pteReadOnly) != 0,
+				 (pte & pteUsed) != 0,
+				 (pte & pteDirty) != 0);
+	entry.large = (pte & pteLarge) != 0;
+	return entry;
+    }
+
+    /**
+     * Set the translation entry for a virtual page to a copy of the specified
+     * entry. Setting <tt>null</tt> removes the entry.
+     *
+     * @param	vpn	the virtual page number.
+     * @param	entry	the new entry for the page, or <tt>null</tt>.
+     */
+    public void put(int vpn, TranslationEntry entry) {
+	write(vpn, (entry == null) ? 0 : pack(entry));
+    }
+
+    /**
+     * Test whether a virtual page has a valid entry.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	<tt>true</tt> if the page is valid.
+     */
+    public boolean isValid(int vpn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    return entry != null && entry.valid;
+	}
+
+	return (read(vpn) & pteValid) != 0;
+    }
+
+    /**
+     * Test whether a virtual page is read-only.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	<tt>true</tt> if the page is read-only.
+     */
+    public boolean isReadOnly(int vpn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    return entry != null && entry.readOnly;
+	}
+
+	return (read(vpn) & pteReadOnly) != 0;
+    }
+
+    /**
+     * Test whether a virtual page has been used.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	<tt>true</tt> if the used bit is set.
+     */
+    public boolean isUsed(int vpn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    return entry != null && entry.used;
+	}
+
+	return (read(vpn) & pteUsed) != 0;
+    }
+
+    /**
+     * Test whether a virtual page has been written.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	<tt>true</tt> if the dirty bit is set.
+     */
+    public boolean isDirty(int vpn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    return entry != null && entry.dirty;
+	}
+
+	return (read(vpn) & pteDirty) != 0;
+    }
+
+    /**
+     * Test whether a virtual page's entry is the first entry of a large page.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	<tt>true</tt> if the large bit is set.
+     */
+    public boolean isLarge(int vpn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    return entry != null && entry.large;
+	}
+
+	return (read(vpn) & pteLarge) != 0;
+    }
+
+    /**
+     * Return the physical page number of a virtual page's entry.
+     *
+     * @param	vpn	the virtual page number, which must have an entry.
+     * @return	the physical page number.
+     */
+    public int getPPN(int vpn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    Lib.assertTrue(entry != null);
+	    return entry.ppn;
+	}
+
+	int pte = read(vpn);
+	Lib.assertTrue(pte != 0);
+
+	return pte >> pteShift;
+    }
+
+    /**
+     * Set the physical page number of a virtual page's entry.
+     *
+     * @param	vpn	the virtual page number, which must have an entry.
+     * @param	ppn	the new physical page number.
+     */
+    public void setPPN(int vpn, int ppn) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    Lib.assertTrue(entry != null);
+	    entry.ppn = ppn;
+	    return;
+	}
+
+	int pte = read(vpn);
+	Lib.assertTrue(pte != 0);
+
+	write(vpn, (ppn << pteShift) | (pte & pteFlags));
+    }
+
+    /**
+     * Set or clear the valid bit of a virtual page's entry.
+     *
+     * @param	vpn	the virtual page number, which must have an entry.
+     * @param	valid	the new valid bit.
+     */
+    public void setValid(int vpn, boolean valid) {
+	setFlag(vpn, pteValid, valid);
+    }
+
+    /**
+     * Set or clear the read-only bit of a virtual page's entry.
+     *
+     * @param	vpn		the virtual page number, which must have an
+     *				entry.
+     * @param	readOnly	the new read-only bit.
+     */
+    public void setReadOnly(int vpn, boolean readOnly) {
+	setFlag(vpn, pteReadOnly, readOnly);
+    }
+
+    /**
+     * Set or clear the used bit of a virtual page's entry.
+     *
+     * @param	vpn	the virtual page number, which must have an entry.
+     * @param	used	the new used bit.
+     */
+    public void setUsed(int vpn, boolean used) {
+	setFlag(vpn, pteUsed, used);
+    }
+
+    /**
+     * Set or clear the dirty bit of a virtual page's entry.
+     *
+     * @param	vpn	the virtual page number, which must have an entry.
+     * @param	dirty	the new dirty bit.
+     */
+    public void setDirty(int vpn, boolean dirty) {
+	setFlag(vpn, pteDirty, dirty);
+    }
+
+    /**
+     * Set or clear the large bit of a virtual page's entry.
+     *
+     * @param	vpn	the virtual page number, which must have an entry.
+     * @param	large	the new large bit.
+     */
+    public void setLarge(int vpn, boolean large) {
+	setFlag(vpn, pteLarge, large);
+    }
+
+    /**
+     * Return the number of leaves currently allocated.
+     *
+     * @return	the number of leaves.
+     */
+    public int getNumLeaves() {
+	return numLeaves;
+    }
+
+    /**
+     * Pack a translation entry into a page table entry word.
+     *
+     * @param	entry	the entry to pack.
+     * @return	the packed entry.
+     */
+    public static int pack(TranslationEntry entry) {
+	Lib.assertTrue(entry.ppn >= -1 && entry.ppn < (1 << (31-pteShift)));
+
+	return (entry.ppn << pteShift) | ptePresent
+	    | (entry.valid ? pteValid : 0)
+	    | (entry.readOnly ? pteReadOnly : 0)
+	    | (entry.used ? pteUsed : 0)
+	    | (entry.dirty ? pteDirty : 0)
+	    | (entry.large ? pteLarge : 0);
+    }
+
+    /**
+     * Return the table's own translation entry for a virtual page, for an
+     * unpacked table. Changing the returned entry changes the table.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the entry for the page, or <tt>null</tt> if there is none.
+     */
+    TranslationEntry entry(int vpn) {
+	Lib.assertTrue(entryLeaves != null);
+
+	if (vpn < 0 || vpn >= Processor.maxPages)
+	    return null;
+
+	TranslationEntry[] leaf = entryLeaves[vpn >>> leafBits];
+	return (leaf == null) ? null : leaf[vpn & (leafSize-1)];
+    }
+
+    private void setFlag(int vpn, int flag, boolean value) {
+	if (entryLeaves != null) {
+	    TranslationEntry entry = entry(vpn);
+	    Lib.assertTrue(entry != null);
+
+	    switch (flag) {
+	    case pteValid:	entry.valid = value;	break;
+	    case pteReadOnly:	entry.readOnly = value;	break;
+	    case pteUsed:	entry.used = value;	break;
+	    case pteDirty:	entry.dirty = value;	break;
+	    case pteLarge:	entry.large = value;	break;
+	    default:		Lib.assertNotReached();
+	    }
+	    return;
+	}
+
+	int pte = read(vpn);
+	Lib.assertTrue(pte != 0);
+
+	write(vpn, value ? (pte | flag) : (pte & ~flag));
+    }
+
+    /** Number of low virtual page number bits indexing a leaf. */
+    public static final int leafBits = 10;
+    /** Number of translation entries in a leaf. */
+    public static final int leafSize = 1 << leafBits;
+    /** Number of leaves in the directory. */
+    public static final int directorySize = Processor.maxPages >>> leafBits;
+
+    /** Set in every packed entry that exists. */
+    public static final int ptePresent = 0x01;
+    /** The valid bit of a packed entry. */
+    public static final int pteValid = 0x02;
+    /** The read-only bit of a packed entry. */
+    public static final int pteReadOnly = 0x04;
+    /** The used bit of a packed entry. */
+    public static final int pteUsed = 0x08;
+    /** The dirty bit of a packed entry. */
+    public static final int pteDirty = 0x10;
+    /** Set in the first packed entry of a large page. */
+    public static final int pteLarge = 0x20;
+    /** The bits of a packed entry below the physical page number. */
+    public static final int pteFlags = 0xFF;
+    /** The position of the physical page number in a packed entry. */
+    public static final int pteShift = 8;
+
+    private TranslationEntry[][] entryLeaves = null;
+    private int[][] packedLeaves = null;
+    private int[] leafCounts;
+    private int numLeaves = 0;
+}
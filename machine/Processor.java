@@ -4,6 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.util.HashMap;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -48,6 +50,17 @@ public final class Processor {
 	mainMemory = new byte[pageSize * numPhysPages];
 
 	if (usingTLB) {
+	    tlbSize = Config.getInteger("Processor.tlbSize", tlbSize);
+	    tlbWays = Config.getInteger("Processor.tlbWays", tlbSize);
+	    // an instruction fetch and a data access may both need an entry
+	    Lib.assertTrue(tlbWays >= 2 && tlbSize%tlbWays == 0,
+			   "bad TLB geometry");
+
+	    largePageSize = Config.getInteger("Processor.largePageSize", 4);
+	    Lib.assertTrue(largePageSize > 0 &&
+			   (largePageSize & (largePageSize-1)) == 0,
+			   "large page size must be a power of two");
+
 	    translations = new TranslationEntry[tlbSize];
 	    for (int i=0; i<tlbSize; i++)
 		translations[i] = new TranslationEntry();
@@ -135,8 +148,8 @@ public final class Processor {
      * paging.
      *
      * <p>
-     * If <tt>false</tt>, this processor directly supports single-level paging;
-     * use <tt>setPageTable()</tt>.
+     * If <tt>false</tt>, this processor directly supports single-level or
+     * two-level paging; use <tt>setPageTable()</tt>.
      *
      * <p>
      * If <tt>true</tt>, this processor has a software-managed TLB;
@@ -164,6 +177,19 @@ public final class Processor {
 	return translations;
     }
 
+    /**
+     * Get the current two-level page table, set by the last call to
+     * <tt>setPageTable(PageTable)</tt>.
+     *
+     * @return	the current two-level page table, or <tt>null</tt> if a
+     *		single-level page table is in use.
+     */
+    public PageTable getTwoLevelPageTable() {
+	Lib.assertTrue(!usingTLB);
+
+	return pageTable;
+    }
+
     /**
      * Set the page table pointer. All further address translations will use
      * the specified page table. The size of the current address space will be
@@ -175,6 +201,21 @@ public final class Processor {
 	Lib.assertTrue(!usingTLB);
 
 	this.translations = pageTable;
+	this.pageTable = null;
+    }
+
+    /**
+     * Set the page table pointer to a two-level page table. All further
+     * address translations will walk the specified page table, and every
+     * virtual page it has no valid entry for will cause a page fault.
+     *
+     * @param	pageTable	the page table to use.
+     */
+    public void setPageTable(PageTable pageTable) {
+	Lib.assertTrue(!usingTLB);
+
+	this.translations = null;
+	this.pageTable = pageTable;
     }
 
     /**
@@ -188,6 +229,47 @@ public final class Processor {
 	return tlbSize;
     }
 
+    /**
+     * Return the number of entries in each set of this processor's TLB. The
+     * TLB has <tt>getTLBSize()/getTLBWays()</tt> sets, and is fully
+     * associative if there is only one.
+     *
+     * @return	the associativity of this processor's TLB.
+     */
+    public int getTLBWays() {
+	Lib.assertTrue(usingTLB);
+
+	return tlbWays;
+    }
+
+    /**
+     * Return the TLB set that must hold the translation for the specified
+     * virtual page. The set occupies TLB entries
+     * <tt>set*getTLBWays()</tt> through <tt>(set+1)*getTLBWays()-1</tt>.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the set for the virtual page.
+     */
+    public int getTLBSet(int vpn) {
+	Lib.assertTrue(usingTLB);
+
+	return (vpn & 0x7FFFFFFF) % (tlbSize/tlbWays);
+    }
+
+    /**
+     * Return the number of pages in a large page, which a single TLB entry
+     * can translate. A large page must start at a virtual and a physical page
+     * number that are both multiples of this. Returns 1 if large pages are
+     * not supported.
+     *
+     * @return	the number of pages in a large page.
+     */
+    public int getLargePageSize() {
+	Lib.assertTrue(usingTLB);
+
+	return largePageSize;
+    }
+
     /**
      * Returns the specified TLB entry.
      *
@@ -205,8 +287,11 @@ public final class Processor {
      * Fill the specified TLB entry.
      *
      * <p>
-     * The TLB is fully associative, so the location of an entry within the TLB
-     * does not affect anything.
+     * The TLB is set associative, so a valid entry must be written into the
+     * set returned by <tt>getTLBSet()</tt> for its virtual page. The location
+     * of an entry within its set does not affect anything. A large entry goes
+     * in the set of the first page it translates, and must be aligned to the
+     * large page size.
      *
      * @param	number	the index into the TLB.
      * @param	entry	the new contents of the TLB entry.
@@ -214,8 +299,30 @@ public final class Processor {
     public void writeTLBEntry(int number, TranslationEntry entry) {
 	Lib.assertTrue(usingTLB);
 	Lib.assertTrue(number >= 0 && number < tlbSize);
+	Lib.assertTrue(!entry.valid || number/tlbWays == getTLBSet(entry.vpn));
+	Lib.assertTrue(!entry.valid || !entry.large ||
+		       (largePageSize > 1 &&
+			entry.vpn % largePageSize == 0 &&
+			entry.ppn % largePageSize == 0),
+		       "misaligned large page");
+
+	TranslationEntry old = translations[number];
+	if (old.valid) {
+	    if (entry.valid &&
+		(entry.vpn != old.vpn || entry.large != old.large))
+		privilege.stats.numTLBEvictions++;
+
+	    HashMap<Integer, Integer> oldIndex =
+		old.large ? largeTLBIndex : tlbIndex;
+	    Integer index = oldIndex.get(old.vpn);
+	    if (index != null && index == number)
+		oldIndex.remove(old.vpn);
+	}
 
 	translations[number] = new TranslationEntry(entry);
+
+	if (entry.valid)
+	    (entry.large ? largeTLBIndex : tlbIndex).put(entry.vpn, number);
     }
 
     /**
@@ -310,27 +417,35 @@ public final class Processor {
 
 	TranslationEntry entry = null;
 
+	// a packed two-level page table is walked using its packed entries
+	if (!usingTLB && pageTable != null && pageTable.isPacked())
+	    return translatePacked(vaddr, vpn, offset, writing);
+
 	// if not using a TLB, then the vpn is an index into the table
 	if (!usingTLB) {
-	    if (translations == null || vpn >= translations.length ||
-		translations[vpn] == null ||
-		!translations[vpn].valid) {
+	    if (pageTable != null)
+		entry = pageTable.entry(vpn);
+	    else if (translations != null && vpn < translations.length)
+		entry = translations[vpn];
+
+	    if (entry == null || !entry.valid) {
 		privilege.stats.numPageFaults++;
 		Lib.debug(dbgProcessor, "\t\tpage fault");
 		throw new MipsException(exceptionPageFault, vaddr);
 	    }
-
-	    entry = translations[vpn];
 	}
-	// else, look through all TLB entries for matching vpn
+	// else, look up the TLB entry for the vpn in the hashed index, then
+	// the large entry for the large page containing it
 	else {
-	    for (int i=0; i<tlbSize; i++) {
-		if (translations[i].valid && translations[i].vpn == vpn) {
-		    entry = translations[i];
-		    break;
-		}
+	    Integer index = tlbIndex.get(vpn);
+	    if (index == null && !largeTLBIndex.isEmpty())
+		index = largeTLBIndex.get(vpn & ~(largePageSize-1));
+
+	    if (index != null) {
+		entry = translations[index];
+		privilege.stats.numTLBHits++;
 	    }
-	    if (entry == null) {
+	    else {
 		privilege.stats.numTLBMisses++;
 		Lib.debug(dbgProcessor, "\t\tTLB miss");
 		throw new MipsException(exceptionTLBMiss, vaddr);
@@ -345,6 +460,8 @@ public final class Processor {
 
 	// check if physical page number is out of range
 	int ppn = entry.ppn;
+	if (entry.large)
+	    ppn += vpn - entry.vpn;
 	if (ppn < 0 || ppn >= numPhysPages) {
 	    Lib.debug(dbgProcessor, "\t\tbad ppn");
 	    throw new MipsException(exceptionBusError, vaddr);
@@ -362,6 +479,42 @@ public final class Processor {
 	return paddr;
     }
 
+    /**
+     * Translate a virtual address through the two-level page table, reading
+     * and updating its packed entry directly.
+     */
+    private int translatePacked(int vaddr, int vpn, int offset,
+				boolean writing) throws MipsException {
+	int pte = pageTable.read(vpn);
+
+	if ((pte & PageTable.pteValid) == 0) {
+	    privilege.stats.numPageFaults++;
+	    Lib.debug(dbgProcessor, "\t\tpage fault");
+	    throw new MipsException(exceptionPageFault, vaddr);
+	}
+
+	if ((pte & PageTable.pteReadOnly) != 0 && writing) {
+	    Lib.debug(dbgProcessor, "\t\tread-only exception");
+	    throw new MipsException(exceptionReadOnly, vaddr);
+	}
+
+	int ppn = pte >> PageTable.pteShift;
+	if (ppn < 0 || ppn >= numPhysPages) {
+	    Lib.debug(dbgProcessor, "\t\tbad ppn");
+	    throw new MipsException(exceptionBusError, vaddr);
+	}
+
+	int updated = pte | PageTable.pteUsed | (writing ? PageTable.pteDirty : 0);
+	if (updated != pte)
+	    pageTable.write(vpn, updated);
+
+	int paddr = (ppn*pageSize) + offset;
+
+	if (Lib.test(dbgProcessor))
+	    System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
+	return paddr;
+    }
+
     /**
      * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
      * and return the result.
@@ -541,11 +694,23 @@ public final class Processor {
     private boolean usingTLB;
     /** Number of TLB entries. */
     private int tlbSize = 4;
+    /** Number of TLB entries in each set. */
+    private int tlbWays;
+    /** The index of the valid TLB entry for each virtual page. */
+    private HashMap<Integer, Integer> tlbIndex =
+	new HashMap<Integer, Integer>();
+    /** The index of the valid large TLB entry for each large page. */
+    private HashMap<Integer, Integer> largeTLBIndex =
+	new HashMap<Integer, Integer>();
+    /** Number of pages in a large page. */
+    private int largePageSize = 1;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
      */
     private TranslationEntry[] translations;
+    /** The two-level page table, if one is in use instead. */
+    private PageTable pageTable = null;
 
     /** Size of a page, in bytes. */
     public static final int pageSize = 0x400;
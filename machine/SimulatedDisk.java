@@ -0,0 +1,275 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+
+/**
+ * A disk that stores fixed-size sectors in a single file on the host. Sectors
+ * are numbered from 0, and laid out track by track: sector <i>s</i> is on
+ * track <i>s</i> / <tt>sectorsPerTrack</tt>.
+ *
+ * <p>
+ * Only one request may be in progress at a time. A request reads or writes a
+ * run of consecutive sectors, and the interrupt handler is called when it is
+ * finished. Its time is modeled on a real disk: the head first seeks to the
+ * first sector's track, taking <tt>Stats.SeekTime</tt> ticks per track
+ * crossed; it then waits for the sector to rotate under it, the disk taking
+ * <tt>Stats.RotationTime</tt> ticks per revolution; and each sector then
+ * takes its share of a revolution to pass under the head. So where data is
+ * placed on the disk, and the order requests arrive in, both matter.
+ *
+ * <p>
+ * <tt>nachos.conf</tt> sets the geometry with
+ * <tt>SimulatedDisk.sectorSize</tt> (default 128 bytes),
+ * <tt>SimulatedDisk.sectorsPerTrack</tt> (default 32), and
+ * <tt>SimulatedDisk.numTracks</tt> (default 64). The image is the file
+ * <tt>SimulatedDisk.image</tt> (default <tt>nachos.disk</tt>) in the test
+ * directory.
+ */
+public final class SimulatedDisk {
+    /**
+     * Allocate a new simulated disk, creating its image file if it does not
+     * exist. A new image reads as all zeros.
+     *
+     * @param	privilege      	encapsulates privileged access to the Nachos
+     *				machine.
+     * @param	image		the host file holding the disk's sectors.
+     */
+    public SimulatedDisk(Privilege privilege, final File image) {
+	System.out.print(" disk");
+
+	this.privilege = privilege;
+
+	sectorSize = Config.getInteger("SimulatedDisk.sectorSize", 128);
+	sectorsPerTrack = Config.getInteger("SimulatedDisk.sectorsPerTrack", 32);
+	numTracks = Config.getInteger("SimulatedDisk.numTracks", 64);
+	Lib.assertTrue(sectorSize > 0 && sectorsPerTrack > 0 && numTracks > 0);
+
+	numSectors = sectorsPerTrack*numTracks;
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() { openImage(image); }
+	    });
+
+	Lib.assertTrue(file != null, "unable to open disk image " + image);
+
+	requestInterrupt = new Runnable() {
+		public void run() { requestInterrupt(); }
+	    };
+    }
+
+    private void openImage(File image) {
+	try {
+	    file = new RandomAccessFile(image, "rw");
+	    if (file.length() < (long) numSectors*sectorSize)
+		file.setLength((long) numSectors*sectorSize);
+	}
+	catch (IOException e) {
+	    file = null;
+	}
+    }
+
+    /**
+     * Set this disk's interrupt handler. The handler is called every time a
+     * request finishes, after which another request can be started.
+     *
+     * @param	handler	the callback to call when a request finishes.
+     */
+    public void setInterruptHandler(Runnable handler) {
+	this.handler = handler;
+    }
+
+    /**
+     * Return the number of bytes in a sector.
+     *
+     * @return	the sector size.
+     */
+    public int getSectorSize() {
+	return sectorSize;
+    }
+
+    /**
+     * Return the number of sectors on each track.
+     *
+     * @return	the number of sectors per track.
+     */
+    public int getSectorsPerTrack() {
+	return sectorsPerTrack;
+    }
+
+    /**
+     * Return the number of tracks.
+     *
+     * @return	the number of tracks.
+     */
+    public int getNumTracks() {
+	return numTracks;
+    }
+
+    /**
+     * Return the number of sectors on the disk.
+     *
+     * @return	the number of sectors.
+     */
+    public int getNumSectors() {
+	return numSectors;
+    }
+
+    /**
+     * Return the track a sector is on.
+     *
+     * @param	sector	the sector number.
+     * @return	the sector's track.
+     */
+    public int getTrack(int sector) {
+	return sector / sectorsPerTrack;
+    }
+
+    /**
+     * Return the track the head is over. While a request is in progress, this
+     * is the track the request will finish on.
+     *
+     * @return	the head's track.
+     */
+    public int getHeadTrack() {
+	return headTrack;
+    }
+
+    /**
+     * Test whether a request is in progress.
+     *
+     * @return	<tt>true</tt> if the disk is busy.
+     */
+    public boolean isBusy() {
+	return busy;
+    }
+
+    /**
+     * Start reading a run of sectors into <tt>data</tt>. The data is only
+     * valid once the interrupt handler is called.
+     *
+     * @param	sector		the first sector to read.
+     * @param	count		the number of sectors to read.
+     * @param	data		the buffer to read into.
+     * @param	offset		the offset in <tt>data</tt> of the first byte.
+     */
+    public void readRequest(int sector, int count, byte[] data, int offset) {
+	startRequest(false, sector, count, data, offset);
+    }
+
+    /**
+     * Start writing a run of sectors from <tt>data</tt>. The data is copied
+     * when the request starts, so the buffer may be reused at once.
+     *
+     * @param	sector		the first sector to write.
+     * @param	count		the number of sectors to write.
+     * @param	data		the buffer to write from.
+     * @param	offset		the offset in <tt>data</tt> of the first byte.
+     */
+    public void writeRequest(int sector, int count, byte[] data, int offset) {
+	byte[] copy = new byte[count*sectorSize];
+	System.arraycopy(data, offset, copy, 0, copy.length);
+
+	startRequest(true, sector, count, copy, 0);
+    }
+
+    private void startRequest(boolean write, int sector, int count,
+			      byte[] data, int offset) {
+	Lib.assertTrue(!busy, "disk request already in progress");
+	Lib.assertTrue(count > 0 && sector >= 0 && sector+count <= numSectors);
+	Lib.assertTrue(offset >= 0 && offset + count*sectorSize <= data.length);
+
+	busy = true;
+	requestWrite = write;
+	requestSector = sector;
+	requestCount = count;
+	requestData = data;
+	requestOffset = offset;
+
+	long time = requestTime(sector, count);
+
+	Lib.debug(dbgDisk, "disk " + (write ? "write" : "read") + " of "
+		  + count + " sectors at " + sector + ", " + time + " ticks");
+
+	privilege.interrupt.schedule(time, write ? "disk write" : "disk read",
+				     requestInterrupt);
+    }
+
+    /**
+     * Return the number of ticks a request starting now will take, and move
+     * the head to the track it will finish on.
+     */
+    private long requestTime(int sector, int count) {
+	int track = getTrack(sector);
+	int lastTrack = getTrack(sector+count-1);
+
+	long seek = (long) Math.abs(track - headTrack) * Stats.SeekTime;
+
+	// where the disk has rotated to once the seek is done
+	long angle = (Machine.timer().getTime() + seek) % Stats.RotationTime;
+	long target = (long) (sector % sectorsPerTrack) * Stats.RotationTime
+	    / sectorsPerTrack;
+	long latency = (target - angle + Stats.RotationTime) % Stats.RotationTime;
+
+	// following tracks are skewed so that a run only pays the seek
+	long transfer = (long) count * Stats.RotationTime / sectorsPerTrack
+	    + (long) (lastTrack - track) * Stats.SeekTime;
+
+	headTrack = lastTrack;
+
+	return Math.max(1, seek + latency + transfer);
+    }
+
+    private void requestInterrupt() {
+	Lib.assertTrue(busy);
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() { transfer(); }
+	    });
+
+	if (requestWrite)
+	    privilege.stats.numDiskWrites += requestCount;
+	else
+	    privilege.stats.numDiskReads += requestCount;
+
+	busy = false;
+	requestData = null;
+
+	if (handler != null)
+	    handler.run();
+    }
+
+    private void transfer() {
+	try {
+	    file.seek((long) requestSector*sectorSize);
+	    if (requestWrite)
+		file.write(requestData, requestOffset, requestCount*sectorSize);
+	    else
+		file.readFully(requestData, requestOffset,
+			       requestCount*sectorSize);
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("disk image I/O failed: " + e);
+	}
+    }
+
+    private Privilege privilege;
+    private RandomAccessFile file = null;
+    private Runnable handler = null;
+    private Runnable requestInterrupt;
+
+    private int sectorSize, sectorsPerTrack, numTracks, numSectors;
+    private int headTrack = 0;
+
+    private boolean busy = false;
+    private boolean requestWrite;
+    private int requestSector, requestCount, requestOffset;
+    private byte[] requestData;
+
+    private static final char dbgDisk = 'd';
+}
@@ -23,10 +23,27 @@ public final class Stats {
 			   + ", user " + userTicks);
 	System.out.println("Disk I/O: reads " + numDiskReads
 			   + ", writes " + numDiskWrites);
+	if (numDiskRequests > 0)
+	    System.out.println("Disk requests: " + numDiskRequests
+			       + " in " + numDiskTransfers + " transfers"
+			       + ", mean latency "
+			       + (diskRequestTicks / numDiskRequests)
+			       + ", max latency " + maxDiskRequestTicks
+			       + ", ticks per sector "
+			       + (diskBusyTicks /
+				  Math.max(1, numDiskReads+numDiskWrites)));
+	if (numCacheHits+numCacheMisses+numCacheWriteBacks > 0)
+	    System.out.println("Buffer cache: hits " + numCacheHits
+			       + ", misses " + numCacheMisses
+			       + ", write-backs " + numCacheWriteBacks
+			       + ", read-aheads " + numCacheReadAheads);
 	System.out.println("Console I/O: reads " + numConsoleReads
 			   + ", writes " + numConsoleWrites);
 	System.out.println("Paging: page faults " + numPageFaults
-			   + ", TLB misses " + numTLBMisses);
+			   + ", TLB hits " + numTLBHits
+			   + ", TLB misses " + numTLBMisses
+			   + ", TLB evictions " + numTLBEvictions
+			   + ", TLB flushes " + numTLBFlushes);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
     }
@@ -49,14 +66,41 @@ public final class Stats {
     public int numDiskReads = 0;
     /** The total number of sectors Nachos has written to the simulated disk.*/
     public int numDiskWrites = 0;
+    /** The total number of requests the kernel has made of the disk. */
+    public int numDiskRequests = 0;
+    /** The total number of transfers those requests were merged into. */
+    public int numDiskTransfers = 0;
+    /** The total number of ticks disk requests have taken to complete. */
+    public long diskRequestTicks = 0;
+    /** The longest time any disk request has taken to complete. */
+    public long maxDiskRequestTicks = 0;
+    /** The total number of ticks the disk has spent on transfers. */
+    public long diskBusyTicks = 0;
+    /** The total number of file blocks found in the kernel buffer cache. */
+    public int numCacheHits = 0;
+    /** The total number of file blocks missing from the kernel buffer cache. */
+    public int numCacheMisses = 0;
+    /** The total number of dirty cached blocks written back to their file. */
+    public int numCacheWriteBacks = 0;
+    /** The total number of file blocks read into the cache ahead of use. */
+    public int numCacheReadAheads = 0;
     /** The total number of characters Nachos has read from the console. */
     public int numConsoleReads = 0;
     /** The total number of characters Nachos has written to the console. */
     public int numConsoleWrites = 0;
     /** The total number of page faults that have occurred. */
     public int numPageFaults = 0;
+    /** The total number of TLB hits that have occurred. */
+    public long numTLBHits = 0;
     /** The total number of TLB misses that have occurred. */
     public int numTLBMisses = 0;
+    /**
+     * The total number of valid TLB entries replaced by entries for other
+     * pages.
+     */
+    public int numTLBEvictions = 0;
+    /** The total number of times the kernel has flushed the TLB. */
+    public int numTLBFlushes = 0;
     /** The total number of packets Nachos has sent to the network. */
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
@@ -6,14 +6,31 @@ import nachos.security.*;
 import nachos.threads.*;
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
 
 /**
  * This class implements a file system that redirects all requests to the host
  * operating system's file system.
+ *
+ * <p>
+ * If <tt>StubFileSystem.mapped</tt> is set, each open file is mapped into
+ * memory, so that reads and writes are copies to and from the mapping rather
+ * than host system calls. An instance maps its file read-only until it first
+ * writes. Writing past the end of the mapping maps the file again at twice
+ * the size, but the host file is cut back to the end of the data as part of
+ * the same write, so it is never left longer than the Nachos file. An
+ * instance that has written writes its mapping back to the host file when it
+ * is closed or the file system is flushed; one that has only read never
+ * changes the host file.
  */
-public class StubFileSystem implements FileSystem {
+public class StubFileSystem implements FileSystem, Flushable {
     /**
      * Allocate a new stub file system.
      *
@@ -24,8 +41,10 @@ public class StubFileSystem implements FileSystem {
     public StubFileSystem(Privilege privilege, File directory) {
 	this.privilege = privilege;
 	this.directory = directory;
+
+	mapped = Config.getBoolean("StubFileSystem.mapped", false);
     }
-    
+
     public OpenFile open(String name, boolean truncate) {
 	if (!checkName(name))
 	    return null;
@@ -48,9 +67,24 @@ public class StubFileSystem implements FileSystem {
 
 	FileRemover fr = new FileRemover(new File(directory, name));
 	privilege.doPrivileged(fr);
+
+	if (fr.successful)
+	    mappedLengths.remove(name);
+
 	return fr.successful;
     }
 
+    /**
+     * Write the mapping of every open instance that has written back to the
+     * host.
+     */
+    public void flush() {
+	for (MappedLength length : mappedLengths.values()) {
+	    for (StubOpenFile instance : length.instances)
+		instance.force();
+	}
+    }
+
     private class FileRemover implements Runnable {
 	public FileRemover(File f) {
 	    this.f = f;
@@ -88,10 +122,64 @@ public class StubFileSystem implements FileSystem {
 	    if (file == null)
 		throw new IOException();
 
+	    if (mapped) {
+		MappedLength shared = mappedLengths.get(name);
+
+		int size = 0;
+		if (!truncate)
+		    size = (shared != null) ? shared.length : (int) file.length();
+
+		if (!remap(size)) {
+		    file.close();
+		    throw new IOException();
+		}
+
+		if (shared == null) {
+		    shared = new MappedLength();
+		    shared.length = size;
+		    mappedLengths.put(name, shared);
+		}
+
+		// no other instance may keep a mapping past the new end
+		if (truncate) {
+		    file.setLength(0);
+		    shared.length = 0;
+
+		    for (StubOpenFile instance : shared.instances)
+			instance.remap(0);
+		}
+
+		length = shared;
+		length.instances.add(this);
+	    }
+
 	    open = true;
 	    openCount++;
 	}
 
+	/**
+	 * Map the file again with room for at least <tt>size</tt> bytes,
+	 * growing it on the host if needed. The mapping is read-only until this
+	 * instance writes.
+	 */
+	private boolean remap(final int size) {
+	    final FileChannel.MapMode mode = written
+		? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+
+	    privilege.doPrivileged(new Runnable() {
+		public void run() {
+		    try {
+			map = file.getChannel().map(mode, 0, size);
+		    }
+		    catch (IOException e) {
+			map = null;
+		    }
+		}
+	    });
+
+	    return map != null;
+	}
+
 	private void getRandomAccessFile(File f, boolean truncate) {
 	    try {
 		if (!truncate && !f.exists())
@@ -99,7 +187,8 @@ public class StubFileSystem implements FileSystem {
 
 		file = new RandomAccessFile(f, "rw");
 
-		if (truncate)
+		// a mapped file is cut once it is mapped, in case mapping fails
+		if (truncate && !mapped)
 		    file.setLength(0);
 	    }
 	    catch (IOException e) {
@@ -109,6 +198,28 @@ public class StubFileSystem implements FileSystem {
 	public int read(int pos, byte[] buf, int offset, int length) {
 	    if (!open)
 		return -1;
+
+	    if (mapped) {
+		if (pos < 0)
+		    return -1;
+
+		delay();
+
+		int amount = Math.max(0, Math.min(length,
+						  this.length.length - pos));
+
+		// another instance may have extended or truncated the file
+		if ((map == null || pos+amount > map.capacity()) &&
+		    !remap(this.length.length))
+		    return -1;
+
+		if (amount > 0) {
+		    ByteBuffer view = map.duplicate();
+		    view.position(pos);
+		    view.get(buf, offset, amount);
+		}
+		return amount;
+	    }
 	    
 	    try {
 		delay();
@@ -124,6 +235,49 @@ public class StubFileSystem implements FileSystem {
 	public int write(int pos, byte[] buf, int offset, int length) {
 	    if (!open)
 		return -1;
+
+	    if (mapped) {
+		if (pos < 0 || pos+length < 0)
+		    return -1;
+
+		delay();
+
+		int end = pos+length;
+		int newLength = Math.max(this.length.length, end);
+
+		// the first write maps the file writable
+		if (!written) {
+		    written = true;
+		    map = null;
+		}
+
+		boolean remapped = false;
+		if (map == null || end > map.capacity()) {
+		    long size = (map == null) ? newLength
+			: Math.max(end, 2L*map.capacity());
+		    if (!remap((int) Math.min(Integer.MAX_VALUE, size)))
+			return -1;
+		    remapped = true;
+		}
+
+		// the host file covers the new data before it is written, and no
+		// more than that once it is
+		try {
+		    if ((remapped || newLength > this.length.length) &&
+			file.length() != newLength)
+			file.setLength(newLength);
+		}
+		catch (IOException e) {
+		    return -1;
+		}
+
+		ByteBuffer view = map.duplicate();
+		view.position(pos);
+		view.put(buf, offset, length);
+
+		this.length.length = newLength;
+		return length;
+	    }
 	    
 	    try {
 		delay();
@@ -138,6 +292,9 @@ public class StubFileSystem implements FileSystem {
 	}
 
 	public int length() {
+	    if (mapped)
+		return length.length;
+
 	    try {
 		return (int) file.length();
 	    }
@@ -153,6 +310,15 @@ public class StubFileSystem implements FileSystem {
 	    }
 		
 	    try {
+		if (length != null && length.instances.remove(this)) {
+		    force();
+		    map = null;
+
+		    if (length.instances.isEmpty() &&
+			mappedLengths.get(getName()) == length)
+			mappedLengths.remove(getName());
+		}
+
 		file.close();
 	    }
 	    catch (IOException e) {
@@ -161,6 +327,26 @@ public class StubFileSystem implements FileSystem {
 
 	private RandomAccessFile file = null;
 	private boolean open = false;
+
+	/**
+	 * Write the mapping back to the host file, if this instance has
+	 * written.
+	 */
+	private void force() {
+	    if (written && map != null)
+		map.force();
+	}
+
+	private MappedByteBuffer map = null;
+	private MappedLength length = null;
+	/** Set once this instance has written, and mapped the file writable. */
+	private boolean written = false;
+    }
+
+    /** The real length of a mapped file, shared by its open instances. */
+    private static class MappedLength {
+	int length;
+	LinkedList<StubOpenFile> instances = new LinkedList<StubOpenFile>();
     }
 
     private int openCount = 0;
@@ -168,6 +354,9 @@ public class StubFileSystem implements FileSystem {
     
     private Privilege privilege;
     private File directory;
+    private boolean mapped;
+    private HashMap<String, MappedLength> mappedLengths =
+	new HashMap<String, MappedLength>();
 
     private static boolean checkName(String name) {
 	char[] chars = name.toCharArray();
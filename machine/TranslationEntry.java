@@ -48,6 +48,7 @@ public final class TranslationEntry {
 	readOnly = entry.readOnly;
 	used = entry.used;
 	dirty = entry.dirty;
+	large = entry.large;
     }
 
     /** The virtual page number. */
@@ -78,4 +79,13 @@ public final class TranslationEntry {
      * user program.
      */
     public boolean dirty;
+
+    /**
+     * If this flag is <tt>true</tt>, this entry translates a whole large page:
+     * <tt>Processor.getLargePageSize()</tt> pages starting at <tt>vpn</tt>,
+     * mapped to as many physical pages starting at <tt>ppn</tt>. Only
+     * meaningful in the TLB, and in the first entry of a large page in a page
+     * table.
+     */
+    public boolean large = false;
 }
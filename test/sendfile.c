@@ -0,0 +1,35 @@
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+int main(int argc, char** argv)
+{
+  int src, dst;
+
+  if (argc!=3) {
+    printf("Usage: sendfile <src> <dst>\n");
+    return 1;
+  }
+
+  src = open(argv[1]);
+  if (src==-1) {
+    printf("Unable to open %s\n", argv[1]);
+    return 1;
+  }
+
+  creat(argv[2]);
+  dst = open(argv[2]);
+  if (dst==-1) {
+    printf("Unable to create %s\n", argv[2]);
+    return 1;
+  }
+
+  /* the kernel copies the data without passing it through our memory */
+  while (sendfile(dst, src, 0x7FFFFFFF)>0)
+    ;
+
+  close(src);
+  close(dst);
+
+  return 0;
+}
@@ -67,3 +67,9 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(munmap, syscallMunmap)
+	SYSCALLSTUB(sendfile, syscallSendfile)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(iosetup, syscallIoSetup)
+	SYSCALLSTUB(ioenter, syscallIoEnter)
@@ -25,6 +25,12 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallMunmap		13
+#define syscallSendfile		14
+#define syscallReadv		15
+#define syscallWritev		16
+#define syscallIoSetup		17
+#define syscallIoEnter		18
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -228,6 +234,118 @@ int unlink(char *name);
  */
 int mmap(int fileDescriptor, char *address);
 
+/**
+ * Remove the map that mmap() placed at address, flushing its dirty pages to
+ * disk first. Afterwards, read() and write() may be used on the file
+ * descriptor again.
+ *
+ * Returns 0 on success, or -1 if no map starts at address.
+ */
+int munmap(char *address);
+
+/**
+ * Copy up to count bytes from inFileDescriptor to outFileDescriptor within
+ * the kernel, without passing them through the caller's memory. Files are
+ * read and written at their current positions, which advance by the number
+ * of bytes copied. Either descriptor may refer to the console.
+ *
+ * Returns the number of bytes copied, which is less than count only at the
+ * end of the input or if the output could not take more, or -1 if an error
+ * occurred before anything was copied.
+ */
+int sendfile(int outFileDescriptor, int inFileDescriptor, int count);
+
+/**
+ * A buffer for readv() and writev().
+ */
+struct iovec {
+    void *base;
+    int length;
+};
+
+/**
+ * Like read(), but read into iovcnt buffers, filling each in turn before
+ * moving to the next. The data is read with a single file operation. At most
+ * 64 buffers may be given.
+ *
+ * Returns the number of bytes read, or -1 if an error occurred.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Like write(), but write the iovcnt buffers one after another, as if they
+ * were a single buffer. The data is written with a single file operation. At
+ * most 64 buffers may be given.
+ *
+ * Returns the number of bytes written, or -1 if an error occurred.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/* ASYNCHRONOUS I/O SYSCALLS: iosetup, ioenter */
+
+#define IO_RING_ENTRIES		16
+
+#define IO_OP_NOP		0
+#define IO_OP_READ		1
+#define IO_OP_WRITE		2
+
+/**
+ * A request, placed in the submission ring by the program. The offset is
+ * ignored for the console. The userData is copied to the request's
+ * completion.
+ */
+struct io_sqe {
+    int opcode;
+    int fileDescriptor;
+    void *buffer;
+    int length;
+    int offset;
+    int userData;
+};
+
+/**
+ * The result of a request, placed in the completion ring by the kernel. The
+ * result is what read() or write() would have returned.
+ */
+struct io_cqe {
+    int userData;
+    int result;
+};
+
+/**
+ * A submission ring and a completion ring. The program adds requests at
+ * sq[sqTail % IO_RING_ENTRIES] and then increments sqTail; the kernel
+ * advances sqHead as it takes them. The kernel adds completions at
+ * cq[cqTail % IO_RING_ENTRIES] and then increments cqTail; the program
+ * increments cqHead once it has used a completion. Completions arrive in the
+ * order the requests finish, not the order they were submitted.
+ */
+struct io_ring {
+    int sqHead, sqTail;
+    int cqHead, cqTail;
+    struct io_sqe sq[IO_RING_ENTRIES];
+    struct io_cqe cq[IO_RING_ENTRIES];
+};
+
+/**
+ * Set up ring, which must be word-aligned, for use with ioenter(), and reset
+ * its heads and tails to 0. A process may have only one ring.
+ *
+ * Returns the number of entries in each ring, or -1 if an error occurred.
+ */
+int iosetup(struct io_ring *ring);
+
+/**
+ * Submit up to toSubmit of the requests added to the submission ring, and
+ * then wait until at least minComplete completions are in the completion
+ * ring or no more requests are in progress. Requests are carried out by
+ * kernel threads, so a program need not wait for each one. A request naming
+ * a bad file descriptor or opcode completes at once with a result of -1.
+ *
+ * Returns the number of requests submitted, or -1 if an error occurred.
+ */
+int ioenter(int toSubmit, int minComplete);
+
 /**
  * Attempt to initiate a new connection to the specified port on the specified
  * remote host, and return a new file descriptor referring to the connection.
@@ -300,6 +300,18 @@ public class KThread {
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Set a task for the idle thread to run each time it is scheduled, so the
+     * kernel can do background work with time that would otherwise be wasted.
+     * Like the idle thread, the task must never block, and should return
+     * quickly.
+     *
+     * @param	task	the task to run, or <tt>null</tt> for none.
+     */
+    public static void setIdleTask(Runnable task) {
+	idleTask = task;
+    }
+
     /**
      * Create the idle thread. Whenever there are no threads ready to be run,
      * and <tt>runNextThread()</tt> is called, it will run the idle thread. The
@@ -313,7 +325,13 @@ public class KThread {
 	Lib.assertTrue(idleThread == null);
 	
 	idleThread = new KThread(new Runnable() {
-	    public void run() { while (true) yield(); }
+	    public void run() {
+		while (true) {
+		    if (idleTask != null)
+			idleTask.run();
+		    yield();
+		}
+	    }
 	});
 	idleThread.setName("idle");
 
@@ -535,4 +553,5 @@ public class KThread {
     private static KThread currentThread = null;
     private static KThread toBeDestroyed = null;
     private static KThread idleThread = null;
+    private static Runnable idleTask = null;
 }
@@ -2,6 +2,9 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.io.Flushable;
+import java.io.IOException;
+
 /**
  * A multi-threaded OS kernel.
  */
@@ -67,6 +70,16 @@ public class ThreadedKernel extends Kernel {
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+	// write back anything a caching file system is holding
+	if (fileSystem instanceof Flushable) {
+	    try {
+		((Flushable) fileSystem).flush();
+	    }
+	    catch (IOException e) {
+		Lib.debug(dbgFileSystem, "flush failed: " + e);
+	    }
+	}
+
 	Machine.halt();
     }
 
@@ -77,6 +90,8 @@ public class ThreadedKernel extends Kernel {
     /** Globally accessible reference to the file system. */
     public static FileSystem fileSystem = null;
 
+    private static final char dbgFileSystem = 'f';
+
     // dummy variables to make javac smarter
     private static RoundRobinScheduler dummy1 = null;
     private static PriorityScheduler dummy2 = null;
@@ -0,0 +1,249 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.io.EOFException;
+
+/**
+ * A kernel-wide cache of parsed executables. The first time a program is
+ * executed, it is loaded and validated by <tt>Coff</tt> as usual, and its
+ * entry point, section table, and section contents are kept in memory. Later
+ * executions of the same program are served entirely from memory, without
+ * opening or reading the executable file.
+ *
+ * <p>
+ * The cache holds at most <tt>CoffCache.maxSize</tt> bytes of section
+ * contents (default 64KB), evicting the least recently executed programs
+ * first. A cached program is invalidated whenever the kernel creates,
+ * writes, or removes a file of the same name.
+ */
+public class CoffCache {
+    /**
+     * Allocate a new, empty executable cache.
+     */
+    public CoffCache() {
+	maxSize = Config.getInteger("CoffCache.maxSize", 64*1024);
+    }
+
+    /**
+     * Return a loader for the executable with the specified name. If the
+     * executable is not cached, it is read from the file system and added to
+     * the cache.
+     *
+     * @param	name	the name of the file containing the executable.
+     * @return	a loader for the executable, or <tt>null</tt> if the file could
+     *		not be opened or is not a valid executable.
+     */
+    public Coff open(String name) {
+	lock.acquire();
+
+	CoffImage image = images.get(name);
+	if (image != null) {
+	    Lib.debug(dbgCache, "\tcoff cache hit for " + name);
+	}
+	else {
+	    image = load(name);
+	    if (image == null) {
+		lock.release();
+		return null;
+	    }
+
+	    if (image.size <= maxSize) {
+		images.put(name, image);
+		totalSize += image.size;
+		evict();
+	    }
+	}
+
+	Coff coff = new CachedCoff(image);
+
+	lock.release();
+	return coff;
+    }
+
+    /**
+     * Discard any cached copy of the specified executable. Called whenever
+     * the file may have been modified.
+     *
+     * @param	name	the name of the file.
+     */
+    public void invalidate(String name) {
+	lock.acquire();
+
+	CoffImage image = images.remove(name);
+	if (image != null) {
+	    totalSize -= image.size;
+	    Lib.debug(dbgCache, "\tcoff cache invalidated " + name);
+	}
+
+	lock.release();
+
+	UserKernel.executableCache.invalidate(name);
+    }
+
+    private void evict() {
+	Iterator<Map.Entry<String, CoffImage>> i =
+	    images.entrySet().iterator();
+
+	while (totalSize > maxSize && i.hasNext()) {
+	    Map.Entry<String, CoffImage> eldest = i.next();
+	    totalSize -= eldest.getValue().size;
+	    i.remove();
+
+	    Lib.debug(dbgCache, "\tcoff cache evicted " + eldest.getKey());
+	}
+    }
+
+    private CoffImage load(String name) {
+	Lib.debug(dbgCache, "\tcoff cache miss for " + name);
+
+	OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
+	if (executable == null) {
+	    Lib.debug(dbgCache, "\topen failed");
+	    return null;
+	}
+
+	Coff coff;
+	try {
+	    coff = new Coff(executable);
+	}
+	catch (EOFException e) {
+	    executable.close();
+	    Lib.debug(dbgCache, "\tcoff load failed");
+	    return null;
+	}
+
+	// the loader has validated the headers, so just copy out the contents
+	byte[] contents = Lib.loadFile(executable);
+	if (contents == null) {
+	    coff.close();
+	    Lib.debug(dbgCache, "\tcoff read failed");
+	    return null;
+	}
+
+	CoffImage image = new CoffImage(coff, contents);
+	coff.close();
+
+	return image;
+    }
+
+    /**
+     * The parsed contents of an executable file.
+     */
+    private static class CoffImage {
+	CoffImage(Coff coff, byte[] file) {
+	    entryPoint = coff.getEntryPoint();
+
+	    int optionalHeaderLength = Lib.bytesToUnsignedShort(file, 16);
+	    int headerOffset = coffHeaderLength + optionalHeaderLength;
+
+	    sections = new SectionImage[coff.getNumSections()];
+	    for (int s=0; s<sections.length; s++) {
+		CoffSection section = coff.getSection(s);
+		int offset = headerOffset + s*CoffSection.headerLength;
+
+		SectionImage image = new SectionImage();
+		image.name = section.getName();
+		image.executable =
+		    (Lib.bytesToInt(file, offset+36) & 0x0FFF) == 0x0020;
+		image.readOnly = section.isReadOnly();
+		image.numPages = section.getLength();
+		image.firstVPN = section.getFirstVPN();
+
+		if (section.isInitialzed()) {
+		    int size = Lib.bytesToInt(file, offset+16);
+		    int contentOffset = Lib.bytesToInt(file, offset+20);
+
+		    image.contents = Arrays.copyOfRange(file, contentOffset,
+							contentOffset+size);
+		    this.size += size;
+		}
+
+		sections[s] = image;
+	    }
+	}
+
+	int entryPoint;
+	SectionImage[] sections;
+	int size = 0;
+    }
+
+    private static class SectionImage {
+	String name;
+	boolean executable, readOnly;
+	int numPages, firstVPN;
+	/** The initialized contents, or <tt>null</tt> if zero-filled. */
+	byte[] contents = null;
+    }
+
+    /**
+     * A loader whose sections are served from a cached image.
+     */
+    private static class CachedCoff extends Coff {
+	CachedCoff(CoffImage image) {
+	    entryPoint = image.entryPoint;
+
+	    sections = new CoffSection[image.sections.length];
+	    for (int s=0; s<sections.length; s++)
+		sections[s] = new CachedSection(this, image.sections[s]);
+	}
+
+	public int getEntryPoint() {
+	    return entryPoint;
+	}
+
+	public void close() {
+	    sections = null;
+	}
+    }
+
+    private static class CachedSection extends CoffSection {
+	CachedSection(Coff coff, SectionImage image) {
+	    super(coff, image.name, image.executable, image.readOnly,
+		  image.numPages, image.firstVPN);
+
+	    this.contents = image.contents;
+	    initialized = (contents != null);
+	}
+
+	public void loadPage(int spn, int ppn) {
+	    Lib.assertTrue(spn>=0 && spn<numPages);
+	    Lib.assertTrue(ppn>=0 && ppn<Machine.processor().getNumPhysPages());
+
+	    int pageSize = Processor.pageSize;
+	    byte[] memory = Machine.processor().getMemory();
+	    int paddr = ppn*pageSize;
+	    int initlen = 0;
+
+	    if (contents != null)
+		initlen = Math.max(0, Math.min(pageSize,
+					       contents.length-spn*pageSize));
+
+	    if (initlen > 0)
+		System.arraycopy(contents, spn*pageSize, memory, paddr,
+				 initlen);
+
+	    Arrays.fill(memory, paddr+initlen, paddr+pageSize, (byte) 0);
+	}
+
+	private byte[] contents;
+    }
+
+    private Lock lock = new Lock();
+    private LinkedHashMap<String, CoffImage> images =
+	new LinkedHashMap<String, CoffImage>(16, 0.75f, true);
+
+    private int maxSize;
+    private int totalSize = 0;
+
+    private static final int coffHeaderLength = 20;
+
+    private static final char dbgCache = 'x';
+}
@@ -0,0 +1,136 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A kernel-wide cache of the physical pages holding read-only executable
+ * sections. Every process running the same executable maps the same physical
+ * page for a given page of a read-only section, so only the first process to
+ * load that page pays for reading it from the file system.
+ *
+ * <p>
+ * Pages are reference counted. A page is returned to the kernel's free page
+ * list when the last process mapping it releases it.
+ */
+public class ExecutablePageCache {
+    /**
+     * Allocate a new, empty executable page cache.
+     */
+    public ExecutablePageCache() {
+    }
+
+    /**
+     * Return the physical page holding the specified page of a read-only
+     * section, loading it into a newly allocated physical page if no process
+     * has it mapped yet. The caller holds a reference to the returned page
+     * until it calls <tt>release()</tt>.
+     *
+     * @param	name		the name of the executable file.
+     * @param	sectionNumber	the index of the section within the
+     *				executable.
+     * @param	section		the section containing the page.
+     * @param	spn		the page number within the section.
+     * @return	the physical page number, or -1 if no free physical page was
+     *		available.
+     */
+    public int acquire(String name, int sectionNumber, CoffSection section,
+		       int spn) {
+	Lib.assertTrue(section.isReadOnly());
+
+	String key = name + ":" + sectionNumber + ":" + spn;
+
+	lock.acquire();
+
+	SharedPage page = pagesByKey.get(key);
+	if (page == null) {
+	    int ppn = UserKernel.getFreePage();
+	    if (ppn == -1) {
+		lock.release();
+		return -1;
+	    }
+
+	    section.loadPage(spn, ppn);
+
+	    page = new SharedPage(key, ppn);
+	    pagesByKey.put(key, page);
+	    pagesByPPN.put(ppn, page);
+
+	    Lib.debug(dbgCache, "\tloaded " + key + " into ppn " + ppn);
+	}
+	else {
+	    Lib.debug(dbgCache, "\tsharing " + key + " at ppn " + page.ppn);
+	}
+
+	page.refCount++;
+
+	lock.release();
+	return page.ppn;
+    }
+
+    /**
+     * Release a reference to a page returned by <tt>acquire()</tt>. The page
+     * is freed when its last reference is released.
+     *
+     * @param	ppn	the physical page number to release.
+     */
+    public void release(int ppn) {
+	lock.acquire();
+
+	SharedPage page = pagesByPPN.get(ppn);
+	Lib.assertTrue(page != null && page.refCount > 0);
+
+	if (--page.refCount == 0) {
+	    if (pagesByKey.get(page.key) == page)
+		pagesByKey.remove(page.key);
+	    pagesByPPN.remove(ppn);
+	    UserKernel.addFreePage(ppn);
+
+	    Lib.debug(dbgCache, "\tfreed " + page.key + " at ppn " + ppn);
+	}
+
+	lock.release();
+    }
+
+    /**
+     * Stop sharing the pages of the specified executable with new processes,
+     * because the file may have changed. Processes already mapping those
+     * pages keep them until they release them.
+     *
+     * @param	name	the name of the executable file.
+     */
+    public void invalidate(String name) {
+	lock.acquire();
+
+	Iterator<SharedPage> i = pagesByKey.values().iterator();
+	while (i.hasNext()) {
+	    if (i.next().key.startsWith(name + ":"))
+		i.remove();
+	}
+
+	lock.release();
+    }
+
+    private static class SharedPage {
+	SharedPage(String key, int ppn) {
+	    this.key = key;
+	    this.ppn = ppn;
+	}
+
+	String key;
+	int ppn;
+	int refCount = 0;
+    }
+
+    private Lock lock = new Lock();
+    private HashMap<String, SharedPage> pagesByKey =
+	new HashMap<String, SharedPage>();
+    private HashMap<Integer, SharedPage> pagesByPPN =
+	new HashMap<Integer, SharedPage>();
+
+    private static final char dbgCache = 'x';
+}
@@ -0,0 +1,335 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+
+import java.util.LinkedList;
+
+/**
+ * A pair of rings in a user process's memory through which it submits I/O
+ * requests and collects their results, without blocking for each one.
+ *
+ * <p>
+ * The rings start at an address the process chooses, laid out as the
+ * <tt>io_ring</tt> structure in <tt>syscall.h</tt>: four words holding the
+ * submission head and tail and the completion head and tail, then
+ * <tt>numEntries</tt> submission entries of six words (opcode, file
+ * descriptor, buffer, length, file offset, and user data), then
+ * <tt>numEntries</tt> completion entries of two words (user data and
+ * result). The process fills submission entries and advances the submission
+ * tail; the kernel consumes them and advances the submission head. The
+ * kernel fills completion entries and advances the completion tail; the
+ * process consumes them and advances the completion head. Head and tail
+ * count entries from 0, and entry <i>i</i> is in slot <i>i</i> mod
+ * <tt>numEntries</tt>.
+ *
+ * <p>
+ * Submitted requests are run by <tt>UserKernel.ioWorkers</tt>, and complete
+ * in whatever order their I/O finishes. Completions that find the ring full
+ * are held by the kernel until the process makes room. At most
+ * <tt>numEntries</tt> requests may be in progress or holding a completion at
+ * once; submission stops there until the process collects completions.
+ */
+public class IORing {
+    /**
+     * Allocate a new ring for a process.
+     *
+     * @param	process	the process that owns the ring.
+     * @param	address	the virtual address of the ring.
+     */
+    public IORing(UserProcess process, int address) {
+	this.process = process;
+	this.address = address;
+
+	lock = new Lock();
+	requestDone = new Condition(lock);
+    }
+
+    /**
+     * Reset the heads and tails in the process's memory to 0.
+     *
+     * @return	<tt>true</tt> if the ring's memory could be written.
+     */
+    public boolean initialize() {
+	return process.writeVirtualMemory(address, new byte[headerSize])
+	    == headerSize;
+    }
+
+    /**
+     * Submit up to <tt>count</tt> of the entries the process has added to the
+     * submission ring, stopping early if too many requests are in progress.
+     * An entry naming a bad descriptor or opcode completes at once with a
+     * result of -1.
+     *
+     * @param	count	the most entries to submit.
+     * @return	the number of entries submitted, or -1 if the ring could not
+     *		be read or its tail is not within <tt>numEntries</tt> entries
+     *		of its head.
+     */
+    public int submit(int count) {
+	int tail = readWord(offsetSubmissionTail);
+	if (tail == -1)
+	    return -1;
+
+	// the process owns the tail, so it may be anything
+	int numQueued = tail - submissionHead;
+	if (numQueued < 0 || numQueued > numEntries)
+	    return -1;
+
+	int submitted = 0;
+	while (submitted < count && submissionHead != tail) {
+	    lock.acquire();
+	    boolean full = (numPending + overflow.size() >= numEntries);
+	    lock.release();
+
+	    if (full)
+		break;
+
+	    int[] entry = new int[submissionEntrySize/4];
+	    int slot = entriesOffset
+		+ (submissionHead % numEntries)*submissionEntrySize;
+
+	    for (int i=0; i<entry.length; i++)
+		entry[i] = readWord(slot + i*4);
+
+	    submissionHead++;
+	    submitted++;
+
+	    queue(entry[0], entry[1], entry[2], entry[3], entry[4], entry[5]);
+	}
+
+	writeWord(offsetSubmissionHead, submissionHead);
+
+	return submitted;
+    }
+
+    private void queue(int opcode, int fileDescriptor, final int buffer,
+		       final int length, final int offset, final int userData) {
+	final boolean write = (opcode == opWrite);
+
+	final OpenFile file = process.getAsyncFile(fileDescriptor, write);
+
+	if (opcode == opNop || file == null || length < 0 ||
+	    (opcode != opRead && opcode != opWrite)) {
+	    lock.acquire();
+	    complete(userData, (opcode == opNop) ? 0 : -1);
+	    lock.release();
+	    return;
+	}
+
+	lock.acquire();
+	numPending++;
+	lock.release();
+
+	UserKernel.ioWorkers.queue(new Runnable() {
+		public void run() {
+		    int result = write ? doWrite(file, buffer, length, offset)
+			: doRead(file, buffer, length, offset);
+
+		    lock.acquire();
+		    numPending--;
+
+		    // an exited process has no ring left to complete into
+		    if (!closed)
+			complete(userData, result);
+		    else
+			requestDone.wakeAll();
+		    lock.release();
+		}
+	    });
+    }
+
+    private int doRead(OpenFile file, int buffer, int length, int offset) {
+	boolean stream = (file.getFileSystem() == null);
+	byte[] data = new byte[Math.min(length, UserProcess.getTransferSize())];
+
+	int total = 0;
+	while (total < length) {
+	    int chunk = Math.min(data.length, length-total);
+
+	    // streams such as the console have no offsets
+	    int amount = stream ? file.read(data, 0, chunk)
+		: file.read(offset+total, data, 0, chunk);
+	    if (amount <= 0)
+		return (total == 0) ? amount : total;
+
+	    int copied = copyOut(buffer+total, data, amount);
+	    total += copied;
+
+	    if (copied < amount || amount < chunk)
+		break;
+	}
+
+	return total;
+    }
+
+    private int doWrite(OpenFile file, int buffer, int length, int offset) {
+	boolean stream = (file.getFileSystem() == null);
+	byte[] data = new byte[Math.min(length, UserProcess.getTransferSize())];
+
+	int total = 0;
+	while (total < length) {
+	    int chunk = Math.min(data.length, length-total);
+
+	    int copied = copyIn(buffer+total, data, chunk);
+	    if (copied == 0)
+		break;
+
+	    int amount = stream ? file.write(data, 0, copied)
+		: file.write(offset+total, data, 0, copied);
+	    if (amount <= 0)
+		return (total == 0) ? amount : total;
+
+	    total += amount;
+
+	    if (amount < copied || copied < chunk)
+		break;
+	}
+
+	return total;
+    }
+
+    /**
+     * Copy data into the process's memory, unless it has exited. The lock
+     * is held for the copy, so that none lands after <tt>drain()</tt>.
+     */
+    private int copyOut(int vaddr, byte[] data, int length) {
+	lock.acquire();
+	int amount = closed ? 0 : process.writeVirtualMemory(vaddr, data, 0,
+							     length);
+	lock.release();
+
+	return amount;
+    }
+
+    /**
+     * Copy data out of the process's memory, unless it has exited.
+     */
+    private int copyIn(int vaddr, byte[] data, int length) {
+	lock.acquire();
+	int amount = closed ? 0 : process.readVirtualMemory(vaddr, data, 0,
+							    length);
+	lock.release();
+
+	return amount;
+    }
+
+    /**
+     * Post a completion, or hold it if the completion ring is full. Called
+     * with the lock held.
+     */
+    private void complete(int userData, int result) {
+	overflow.add(new int[] { userData, result });
+	flushOverflow();
+
+	requestDone.wakeAll();
+    }
+
+    /**
+     * Move held completions into the completion ring while it has room.
+     * Called with the lock held.
+     */
+    private void flushOverflow() {
+	if (overflow.isEmpty())
+	    return;
+
+	int head = readWord(offsetCompletionHead);
+	if (head == -1)
+	    return;
+
+	while (!overflow.isEmpty() && completionTail - head < numEntries) {
+	    int[] completion = overflow.removeFirst();
+	    int slot = entriesOffset + numEntries*submissionEntrySize
+		+ (completionTail % numEntries)*completionEntrySize;
+
+	    writeWord(slot, completion[0]);
+	    writeWord(slot+4, completion[1]);
+	    completionTail++;
+	}
+
+	writeWord(offsetCompletionTail, completionTail);
+    }
+
+    /**
+     * Wait until at least <tt>count</tt> completions are waiting in the
+     * completion ring, or no more requests are in progress.
+     *
+     * @param	count	the number of completions to wait for.
+     */
+    public void waitFor(int count) {
+	lock.acquire();
+
+	while (true) {
+	    flushOverflow();
+
+	    int head = readWord(offsetCompletionHead);
+	    if (head == -1 || completionTail - head >= count || numPending == 0)
+		break;
+
+	    requestDone.sleep();
+	}
+
+	lock.release();
+    }
+
+    /**
+     * Wait until every request in progress is finished. Called when the
+     * process exits, before its memory is released; once this is called,
+     * requests still running neither touch its memory nor post a
+     * completion.
+     */
+    public void drain() {
+	lock.acquire();
+
+	closed = true;
+	while (numPending > 0)
+	    requestDone.sleep();
+
+	lock.release();
+    }
+
+    private int readWord(int offset) {
+	byte[] data = new byte[4];
+	if (process.readVirtualMemory(address+offset, data) != 4)
+	    return -1;
+
+	return Lib.bytesToInt(data, 0);
+    }
+
+    private void writeWord(int offset, int value) {
+	process.writeVirtualMemory(address+offset, Lib.bytesFromInt(value));
+    }
+
+    /** The number of entries in each ring. */
+    public static final int numEntries = 16;
+
+    /** Do nothing. */
+    public static final int opNop = 0;
+    /** Read <tt>length</tt> bytes at <tt>offset</tt> into <tt>buffer</tt>. */
+    public static final int opRead = 1;
+    /** Write <tt>length</tt> bytes at <tt>offset</tt> from <tt>buffer</tt>. */
+    public static final int opWrite = 2;
+
+    private static final int offsetSubmissionHead = 0;
+    private static final int offsetSubmissionTail = 4;
+    private static final int offsetCompletionHead = 8;
+    private static final int offsetCompletionTail = 12;
+    private static final int headerSize = 16;
+    private static final int entriesOffset = headerSize;
+    private static final int submissionEntrySize = 24;
+    private static final int completionEntrySize = 8;
+
+    private UserProcess process;
+    private int address;
+
+    /** The kernel's own copies, which the process cannot change. */
+    private int submissionHead = 0, completionTail = 0;
+    private int numPending = 0;
+    private LinkedList<int[]> overflow = new LinkedList<int[]>();
+    /** Set once the process has exited. */
+    private boolean closed = false;
+
+    private Lock lock;
+    private Condition requestDone;
+}
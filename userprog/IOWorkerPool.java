@@ -0,0 +1,71 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+
+import java.util.LinkedList;
+
+/**
+ * A pool of kernel threads that carry out I/O requests on behalf of user
+ * processes, so that the processes need not block for them. Requests are
+ * started in the order they are queued, but each finishes whenever its I/O
+ * does, so they may finish in any order.
+ *
+ * <p>
+ * <tt>IOWorkerPool.numWorkers</tt> sets the number of threads (default 4),
+ * and so the number of requests in progress at once.
+ */
+public class IOWorkerPool {
+    /**
+     * Allocate a new pool and start its threads.
+     */
+    public IOWorkerPool() {
+	int numWorkers = Config.getInteger("IOWorkerPool.numWorkers", 4);
+	Lib.assertTrue(numWorkers > 0);
+
+	lock = new Lock();
+	requestQueued = new Condition(lock);
+
+	for (int i=0; i<numWorkers; i++) {
+	    KThread worker = new KThread(new Runnable() {
+		    public void run() { workLoop(); }
+		});
+	    worker.setName("I/O worker " + i);
+	    worker.fork();
+	}
+    }
+
+    /**
+     * Queue a request to be run by the next free thread.
+     *
+     * @param	request	the request to run.
+     */
+    public void queue(Runnable request) {
+	lock.acquire();
+
+	requests.add(request);
+	requestQueued.wake();
+
+	lock.release();
+    }
+
+    private void workLoop() {
+	while (true) {
+	    lock.acquire();
+
+	    while (requests.isEmpty())
+		requestQueued.sleep();
+
+	    Runnable request = requests.removeFirst();
+
+	    lock.release();
+
+	    request.run();
+	}
+    }
+
+    private Lock lock;
+    private Condition requestQueued;
+    private LinkedList<Runnable> requests = new LinkedList<Runnable>();
+}
@@ -5,6 +5,7 @@ import nachos.threads.*;
 import nachos.userprog.*;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 /**
  * A kernel that can support multiple user processes.
@@ -25,6 +26,9 @@ public class UserKernel extends ThreadedKernel {
 	super.initialize(args);
 
 	console = new SynchConsole(Machine.console());
+	executableCache = new ExecutablePageCache();
+	coffCache = new CoffCache();
+	ioWorkers = new IOWorkerPool();
 	
 	Machine.processor().setExceptionHandler(new Runnable() {
 		public void run() { exceptionHandler(); }
@@ -138,6 +142,40 @@ public class UserKernel extends ThreadedKernel {
        Machine.interrupt().enable();
     }
 
+    /**
+     * Remove a run of free pages from the free page linked list, starting at
+     * a page number that is a multiple of the run length.
+     *
+     * @param	size	the number of pages in the run.
+     * @return	the first page of the run, or -1 if there is no such run.
+     */
+    public static int getFreePageRun(int size) {
+        int firstPage = -1;
+        Machine.interrupt().disable();
+        HashSet<Integer> free = new HashSet<Integer>(pageTable);
+        for (int base=0; base+size <= Machine.processor().getNumPhysPages()
+                 && firstPage == -1; base += size) {
+            int i = 0;
+            while (i < size && free.contains(base+i))
+                i++;
+            if (i == size)
+                firstPage = base;
+        }
+        if (firstPage != -1) {
+            for (int i=0; i<size; i++)
+                pageTable.remove(Integer.valueOf(firstPage+i));
+        }
+        Machine.interrupt().enable();
+        return firstPage;
+    }
+
+    /**
+     * Return the number of pages in the free page linked list.
+     */
+    public static int getNumFreePages() {
+        return pageTable.size();
+    }
+
 
     /**
      * return next Pid
@@ -186,6 +224,15 @@ public class UserKernel extends ThreadedKernel {
     /** Globally accessible reference to the synchronized console. */
     public static SynchConsole console;
 
+    /** Globally accessible reference to the shared executable page cache. */
+    public static ExecutablePageCache executableCache;
+
+    /** Globally accessible reference to the parsed executable cache. */
+    public static CoffCache coffCache;
+
+    /** Globally accessible reference to the threads running queued I/O. */
+    public static IOWorkerPool ioWorkers;
+
     // dummy variables to make javac smarter
     private static Coff dummy1 = null;
 
@@ -3,11 +3,11 @@ package nachos.userprog;
 import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
+import nachos.filesys.*;
 
 import java.util.LinkedList;
 import java.util.Iterator;
-
-import java.io.EOFException;
+import java.util.Arrays;
 
 /**
  * Encapsulates the state of a user process that is not contained in its
@@ -77,7 +77,8 @@ public class UserProcess {
 	if (!load(name, args))
 	    return false;
 	
-	new UThread(this).setName(name).fork();
+	thread = new UThread(this);
+	thread.setName(name).fork();
 
 	return true;
     }
@@ -157,32 +158,31 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
 	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	//if (vaddr < 0 || vaddr >= memory.length)
-	//    return 0;
-
-	int vpn = Machine.processor().pageFromAddress(vaddr);
-    int addressOffset = Machine.processor().offsetFromAddress(vaddr);
-
-    TranslationEntry entry = null;
-    entry = pageTable[vpn];
-    entry.used = true;
-
-    int ppn = entry.ppn;
-    int paddr = (ppn*pageSize) + addressOffset;
-    // check if physical page number is out of range
-    if (ppn < 0 || ppn >= Machine.processor().getNumPhysPages())  {
-        Lib.debug(dbgProcess,
-                "\t\t UserProcess.readVirtualMemory(): bad ppn "+ppn);
-        return 0;
-    }         
 
+	int amount = 0;
+	while (amount < length) {
+	    int vpn = Processor.pageFromAddress(vaddr+amount);
+	    int addressOffset = Processor.offsetFromAddress(vaddr+amount);
 
+	    TranslationEntry entry = getPageEntry(vpn);
+	    if (entry == null)
+		break;
 
+	    pageTable.setUsed(vpn, true);
 
-    int amount = Math.min(length, memory.length-paddr);
-	System.arraycopy(memory, paddr, data, offset, amount);
+	    // check if physical page number is out of range
+	    int ppn = entry.ppn;
+	    if (ppn < 0 || ppn >= Machine.processor().getNumPhysPages())  {
+		Lib.debug(dbgProcess,
+			  "\t\t UserProcess.readVirtualMemory(): bad ppn "+ppn);
+		break;
+	    }
+
+	    int paddr = (ppn*pageSize) + addressOffset;
+	    int chunk = Math.min(length-amount, pageSize-addressOffset);
+	    System.arraycopy(memory, paddr, data, offset+amount, chunk);
+	    amount += chunk;
+	}
 
 	return amount;
     }
@@ -219,39 +219,72 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
 	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
 
-    int vpn = Machine.processor().pageFromAddress(vaddr);
-    int addressOffset = Machine.processor().offsetFromAddress(vaddr);
+	int amount = 0;
+	while (amount < length) {
+	    int vpn = Processor.pageFromAddress(vaddr+amount);
+	    int addressOffset = Processor.offsetFromAddress(vaddr+amount);
 
-    TranslationEntry entry = null;
-    entry = pageTable[vpn];
-    entry.used = true;
-    entry.dirty = true;
+	    TranslationEntry entry = getWritablePageEntry(vpn);
+	    if (entry == null) {
+		Lib.debug(dbgProcess,
+			  "\t\t [UserProcess.writeVirtualMemory]: unwritable page "+vpn);
+		break;
+	    }
 
-    int ppn = entry.ppn;
-    int paddr = (ppn*pageSize) + addressOffset;
+	    // check if physical page number is out of range
+	    int ppn = entry.ppn;
+	    if (ppn < 0 || ppn >= Machine.processor().getNumPhysPages())  {
+		Lib.debug(dbgProcess, "\t\t [UserProcess.writeVirtualMemory]: bad ppn "+ppn);
+		break;
+	    }
 
-    if (entry.readOnly) {
-        Lib.debug(dbgProcess,
-                 "\t\t [UserProcess.writeVirtualMemory]: write read-only page "+ppn);
-        return 0;
-    }
+	    pageTable.setUsed(vpn, true);
+	    pageTable.setDirty(vpn, true);
 
-    // check if physical page number is out of range
-    if (ppn < 0 || ppn >= Machine.processor().getNumPhysPages())  {
-        Lib.debug(dbgProcess, "\t\t [UserProcess.writeVirtualMemory]: bad ppn "+ppn);
-        return 0;
+	    int paddr = (ppn*pageSize) + addressOffset;
+	    int chunk = Math.min(length-amount, pageSize-addressOffset);
+	    System.arraycopy(data, offset+amount, memory, paddr, chunk);
+	    amount += chunk;
+	}
+
+	return amount;
     }
 
+    /**
+     * Return a copy of the page table entry the kernel should use to access
+     * the specified virtual page on behalf of this process, or <tt>null</tt>
+     * if the page is not mapped. Subclasses may override this to bring the
+     * page into memory first.
+     *
+     * @param	vpn	the virtual page to access.
+     * @return	the page table entry for the page, or <tt>null</tt> if the
+     *		page cannot be accessed.
+     */
+    protected TranslationEntry getPageEntry(int vpn) {
+	TranslationEntry entry = pageTable.get(vpn);
+	if (entry == null || !entry.valid)
+	    return null;
 
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(data, offset, memory, vaddr, amount);
+	return entry;
+    }
 
-	return amount;
+    /**
+     * Return a copy of the page table entry the kernel should use to write
+     * the specified virtual page on behalf of this process, or <tt>null</tt>
+     * if the page is not mapped or is read-only. Subclasses may override this
+     * to make a shared page private first.
+     *
+     * @param	vpn	the virtual page to write.
+     * @return	the page table entry for the page, or <tt>null</tt> if the
+     *		page cannot be written.
+     */
+    protected TranslationEntry getWritablePageEntry(int vpn) {
+	TranslationEntry entry = getPageEntry(vpn);
+	if (entry == null || entry.readOnly)
+	    return null;
+
+	return entry;
     }
 
     /**
@@ -267,20 +300,12 @@ public class UserProcess {
     private boolean load(String name, String[] args) {
 	Lib.debug(dbgProcess, "UserProcess.load(\"" + name + "\")");
 	
-	OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
-	if (executable == null) {
-	    Lib.debug(dbgProcess, "\topen failed");
-	    return false;
-	}
-
-	try {
-	    coff = new Coff(executable);
-	}
-	catch (EOFException e) {
-	    executable.close();
+	coff = UserKernel.coffCache.open(name);
+	if (coff == null) {
 	    Lib.debug(dbgProcess, "\tcoff load failed");
 	    return false;
 	}
+	coffName = name;
 
 	// make sure the sections are contiguous and start at page 0
 	numPages = 0;
@@ -318,11 +343,10 @@ public class UserProcess {
 	// and finally reserve 1 page for arguments
 	numPages++;
 
-    pageTable = new TranslationEntry[numPages];
-    for (int i = 0; i < numPages; i++) {
-        int ppn = UserKernel.getFreePage();
-        pageTable[i] =  new TranslationEntry(i, ppn, true, false, false, false);
-    } 
+	pageTable = new PageTable();
+	for (int i=0; i<numPages; i++)
+	    pageTable.put(i, new TranslationEntry(i, -1, false, false, false,
+						  false));
 
 	if (!loadSections())
 	    return false;
@@ -372,13 +396,49 @@ public class UserProcess {
 	    for (int i=0; i<section.getLength(); i++) {
 		int vpn = section.getFirstVPN()+i;
 
-        TranslationEntry entry = pageTable[vpn];                                   /* @BBA */ 
-        entry.readOnly = section.isReadOnly();                                     /* @BBA */ 
-        int ppn = entry.ppn; 
+		TranslationEntry entry = pageTable.get(vpn);
+		entry.readOnly = section.isReadOnly();
+
+		// read-only pages are shared with other instances of this program
+		if (entry.readOnly)
+		    entry.ppn = UserKernel.executableCache.acquire(coffName, s,
+								   section, i);
+		else
+		    entry.ppn = UserKernel.getFreePage();
+
+		if (entry.ppn == -1) {
+		    unloadSections();
+		    coff.close();
+		    Lib.debug(dbgProcess, "\tinsufficient physical memory");
+		    return false;
+		}
+		entry.valid = true;
+		pageTable.put(vpn, entry);
+
+		if (!entry.readOnly)
+		    section.loadPage(i, entry.ppn);
+	    }
+	}
 
-		// for now, just assume virtual addresses=physical addresses
-		section.loadPage(i, ppn);
+	// the stack and argument pages start out zero-filled
+	byte[] memory = Machine.processor().getMemory();
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    TranslationEntry entry = pageTable.get(vpn);
+	    if (entry.valid)
+		continue;
+
+	    entry.ppn = UserKernel.getFreePage();
+	    if (entry.ppn == -1) {
+		unloadSections();
+		coff.close();
+		Lib.debug(dbgProcess, "\tinsufficient physical memory");
+		return false;
 	    }
+	    entry.valid = true;
+	    pageTable.put(vpn, entry);
+
+	    Arrays.fill(memory, entry.ppn*pageSize, (entry.ppn+1)*pageSize,
+			(byte) 0);
 	}
 	
 	return true;
@@ -388,10 +448,18 @@ public class UserProcess {
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
-        for (int i = 0; i < numPages; i++) {
-            UserKernel.addFreePage(pageTable[i].ppn);
-            pageTable[i].valid = false;
-        } 
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    TranslationEntry entry = pageTable.get(vpn);
+	    if (!entry.valid)
+		continue;
+
+	    if (entry.readOnly)
+		UserKernel.executableCache.release(entry.ppn);
+	    else
+		UserKernel.addFreePage(entry.ppn);
+
+	    pageTable.setValid(vpn, false);
+	}
     }    
 
     /**
@@ -422,9 +490,9 @@ public class UserProcess {
      */
     private int handleHalt() {
 
-	Machine.halt();
+	Kernel.kernel.terminate();
 	
-	Lib.assertNotReached("Machine.halt() did not halt machine!");
+	Lib.assertNotReached("Kernel.terminate() did not halt machine!");
 	return 0;
     }
 
@@ -473,6 +541,8 @@ public class UserProcess {
             return -1;
         }
 
+        UserKernel.coffCache.invalidate(filename);
+
         int fdi = -1;
 
         for (int i = 0; i < 16; i++) {
@@ -494,6 +564,7 @@ public class UserProcess {
         if (fileDescriptor < 0) return -1;
         if (fileDescriptor >= 16) return -1;
         if (fdt[fileDescriptor].file == null) return -1;
+        if (fdt[fileDescriptor].mapped) return -1;
 
         FileDescriptor fd = fdt[fileDescriptor];
         byte[] buffer = new byte[count];
@@ -512,6 +583,7 @@ public class UserProcess {
         if (fileDescriptor < 0) return -1;
         if (fileDescriptor >= 16) return -1;
         if (fdt[fileDescriptor].file == null) return -1;
+        if (fdt[fileDescriptor].mapped) return -1;
 
         FileDescriptor fd = fdt[fileDescriptor];
         byte[] buffer = new byte[count];
@@ -522,6 +594,9 @@ public class UserProcess {
 
         if (file < 0) return -1;
 
+        if (!fd.filename.equals(""))
+            UserKernel.coffCache.invalidate(fd.filename);
+
         fd.position = fd.position + file;
 
         return file;
@@ -536,6 +611,14 @@ public class UserProcess {
         FileDescriptor fd = fdt[fileDescriptor];
 
         fd.position = 0;
+
+        /* write back and remove the map before the file goes away               */
+        if (fd.mapped) {
+            unmapFile(fd.file);
+            fd.mapped = false;
+            UserKernel.coffCache.invalidate(fd.filename);
+        }
+
         fd.file.close();
 
         if (fd.toRemove) {
@@ -560,6 +643,8 @@ public class UserProcess {
                 fdi = i;                                   /* @BAA */
         }                                                   /* @BAA */
 
+        UserKernel.coffCache.invalidate(filename);
+
         if (fdi < 0) {
             file = ThreadedKernel.fileSystem.remove(filename);
         } else {
@@ -569,8 +654,350 @@ public class UserProcess {
         return file ? 0 : -1;
     }
 
+    private int handleSendfile(int outDescriptor, int inDescriptor, int count) {
+        if (outDescriptor < 0 || inDescriptor < 0) return -1;
+        if (outDescriptor >= 16 || inDescriptor >= 16) return -1;
+        if (fdt[outDescriptor].file == null) return -1;
+        if (fdt[inDescriptor].file == null) return -1;
+        if (fdt[outDescriptor].mapped || fdt[inDescriptor].mapped) return -1;
+        if (count < 0) return -1;
+
+        FileDescriptor out = fdt[outDescriptor];
+        FileDescriptor in = fdt[inDescriptor];
+
+        /* copy a cache block at a time, never through user memory               */
+        byte[] buffer = new byte[Math.min(count, getTransferSize())];
+
+        int total = 0;
+        while (total < count) {
+            int n = readDescriptor(in, buffer,
+                                   Math.min(buffer.length, count - total));
+            if (n < 0 && total == 0) return -1;
+            if (n <= 0) break;
+
+            int written = writeDescriptor(out, buffer, n);
+            if (written < 0 && total == 0) return -1;
+            if (written <= 0) break;
+
+            total += written;
+
+            /* leave the input at the first byte that was not written            */
+            if (written < n) {
+                if (in.file.getFileSystem() != null)
+                    in.position -= n - written;
+                break;
+            }
+        }
+
+        if (total > 0 && !out.filename.equals(""))
+            UserKernel.coffCache.invalidate(out.filename);
+
+        return total;
+    }
+
+    private int handleReadv(int fileDescriptor, int iovAddress, int iovCount) {
+        if (fileDescriptor < 0) return -1;
+        if (fileDescriptor >= 16) return -1;
+        if (fdt[fileDescriptor].file == null) return -1;
+        if (fdt[fileDescriptor].mapped) return -1;
+
+        int[] iov = readIovecs(iovAddress, iovCount);
+        if (iov == null) return -1;
+
+        FileDescriptor fd = fdt[fileDescriptor];
+
+        /* read up to a cache block at a time, scattering each one               */
+        byte[] buffer = new byte[Math.min(iov[0], getTransferSize())];
+
+        int total = 0;
+        int i = 1, done = 0;
+        while (total < iov[0]) {
+            int length = Math.min(buffer.length, iov[0] - total);
+            int amount = readDescriptor(fd, buffer, length);
+            if (amount < 0 && total == 0) return -1;
+            if (amount <= 0) break;
+
+            int offset = 0;
+            while (offset < amount) {
+                int chunk = Math.min(iov[i+1] - done, amount - offset);
+                int n = writeVirtualMemory(iov[i] + done, buffer, offset, chunk);
+                offset += n;
+                done += n;
+
+                /* leave the file at the first byte that was not delivered       */
+                if (n < chunk) {
+                    if (fd.file.getFileSystem() != null)
+                        fd.position -= amount - offset;
+                    return total + offset;
+                }
+
+                if (done == iov[i+1]) {
+                    i += 2;
+                    done = 0;
+                }
+            }
+
+            total += amount;
+            if (amount < length) break;
+        }
+
+        return total;
+    }
+
+    private int handleWritev(int fileDescriptor, int iovAddress, int iovCount) {
+        if (fileDescriptor < 0) return -1;
+        if (fileDescriptor >= 16) return -1;
+        if (fdt[fileDescriptor].file == null) return -1;
+        if (fdt[fileDescriptor].mapped) return -1;
+
+        int[] iov = readIovecs(iovAddress, iovCount);
+        if (iov == null) return -1;
+
+        FileDescriptor fd = fdt[fileDescriptor];
+
+        /* gather up to a cache block at a time, writing each one               */
+        byte[] buffer = new byte[Math.min(iov[0], getTransferSize())];
+
+        int total = 0;
+        int i = 1, done = 0;
+        boolean fault = false;
+        while (!fault && total < iov[0]) {
+            int length = 0;
+            while (length < buffer.length && i < iov.length) {
+                int chunk = Math.min(iov[i+1] - done, buffer.length - length);
+                int n = readVirtualMemory(iov[i] + done, buffer, length, chunk);
+                length += n;
+                done += n;
+
+                if (n < chunk) {
+                    fault = true;
+                    break;
+                }
+
+                if (done == iov[i+1]) {
+                    i += 2;
+                    done = 0;
+                }
+            }
+
+            if (length == 0) break;
+
+            int amount = writeDescriptor(fd, buffer, length);
+            if (amount < 0 && total == 0) return -1;
+            if (amount <= 0) break;
+
+            total += amount;
+            if (amount < length) break;
+        }
+
+        if (total > 0 && !fd.filename.equals(""))
+            UserKernel.coffCache.invalidate(fd.filename);
+
+        return total;
+    }
+
+    /**
+     * Read an array of <tt>iovec</tt> structures from this process's virtual
+     * memory. Each is a buffer address followed by its length.
+     *
+     * @param	address	the virtual address of the array.
+     * @param	count	the number of structures in the array.
+     * @return	the total length of the buffers, followed by each buffer's
+     *		address and length, or <tt>null</tt> if the array could not be
+     *		read or a length is invalid.
+     */
+    private int[] readIovecs(int address, int count) {
+	if (count < 0 || count > maxIovecs)
+	    return null;
+
+	byte[] data = new byte[count*8];
+	if (readVirtualMemory(address, data) != data.length)
+	    return null;
+
+	int[] iov = new int[1 + count*2];
+	long total = 0;
+
+	for (int i=0; i<count; i++) {
+	    iov[1+i*2] = Lib.bytesToInt(data, i*8);
+	    iov[2+i*2] = Lib.bytesToInt(data, i*8+4);
+
+	    if (iov[2+i*2] < 0)
+		return null;
+	    total += iov[2+i*2];
+	}
+
+	if (total > Integer.MAX_VALUE)
+	    return null;
+
+	iov[0] = (int) total;
+	return iov;
+    }
+
+    /**
+     * Return the number of bytes <tt>sendfile()</tt>, <tt>readv()</tt>,
+     * <tt>writev()</tt>, and I/O ring requests copy at a time: the block size
+     * of the buffer cache if there is one, and a page otherwise.
+     */
+    static int getTransferSize() {
+	if (ThreadedKernel.fileSystem instanceof CachedFileSystem)
+	    return ((CachedFileSystem) ThreadedKernel.fileSystem).getBlockSize();
+
+	return pageSize;
+    }
+
+    /**
+     * Read from a descriptor at its position. A stream with no file system,
+     * such as the console, has no positions and is read where it is.
+     */
+    private static int readDescriptor(FileDescriptor fd, byte[] buffer,
+				      int length) {
+	if (fd.file.getFileSystem() == null)
+	    return fd.file.read(buffer, 0, length);
+
+	int amount = fd.file.read(fd.position, buffer, 0, length);
+	if (amount > 0)
+	    fd.position += amount;
+
+	return amount;
+    }
+
+    /**
+     * Write to a descriptor at its position, or, for a stream, where it is.
+     */
+    private static int writeDescriptor(FileDescriptor fd, byte[] buffer,
+				       int length) {
+	if (fd.file.getFileSystem() == null)
+	    return fd.file.write(buffer, 0, length);
+
+	int amount = fd.file.write(fd.position, buffer, 0, length);
+	if (amount > 0)
+	    fd.position += amount;
+
+	return amount;
+    }
+
+    private int handleIoSetup(int ringAddress) {
+        if (ioRing != null) return -1;
+
+        /* the ring is read and written a word at a time                         */
+        if (ringAddress % 4 != 0) return -1;
+
+        IORing ring = new IORing(this, ringAddress);
+        if (!ring.initialize()) return -1;
+
+        ioRing = ring;
+        return IORing.numEntries;
+    }
+
+    private int handleIoEnter(int toSubmit, int minComplete) {
+        if (ioRing == null) return -1;
+        if (toSubmit < 0) return -1;
+
+        int submitted = ioRing.submit(toSubmit);
+        if (submitted < 0) return -1;
+
+        if (minComplete > 0)
+            ioRing.waitFor(minComplete);
+
+        return submitted;
+    }
+
+    /**
+     * Return the open file a ring request may use, or <tt>null</tt> if the
+     * descriptor is closed or mapped. Called by <tt>IORing</tt> when a
+     * request is submitted.
+     *
+     * @param	fileDescriptor	the descriptor named by the request.
+     * @param	write		<tt>true</tt> if the request writes the file.
+     * @return	the descriptor's open file.
+     */
+    OpenFile getAsyncFile(int fileDescriptor, boolean write) {
+	if (fileDescriptor < 0 || fileDescriptor >= 16)
+	    return null;
+
+	FileDescriptor fd = fdt[fileDescriptor];
+	if (fd.file == null || fd.mapped)
+	    return null;
+
+	if (write && !fd.filename.equals(""))
+	    UserKernel.coffCache.invalidate(fd.filename);
+
+	return fd.file;
+    }
+
+    private int handleMmap(int fileDescriptor, int address) {
+        if (fileDescriptor < 0) return -1;
+        if (fileDescriptor >= 16) return -1;
+        if (fdt[fileDescriptor].file == null) return -1;
+
+        FileDescriptor fd = fdt[fileDescriptor];
+
+        /* only a file opened by name can be mapped, and only once               */
+        if (fd.mapped || fd.filename.equals("")) return -1;
+
+        int length = mapFile(fd.file, address);
+        if (length < 0) return -1;
+
+        fd.mapped = true;
+        return length;
+    }
+
+    private int handleMunmap(int address) {
+        OpenFile file = unmapAddress(address);
+        if (file == null) return -1;
+
+        for (int i = 0; i < 16; i++) {
+            if (fdt[i].file == file && fdt[i].mapped) {
+                fdt[i].mapped = false;
+                UserKernel.coffCache.invalidate(fdt[i].filename);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Map an open file into this process's virtual memory, starting at the
+     * specified page-aligned address, so that its pages can be accessed
+     * without read() and write(). Mapping needs demand paging, so this
+     * implementation always fails; subclasses that page on demand override
+     * it.
+     *
+     * @param	file	the file to map.
+     * @param	address	the virtual address of the first byte of the map.
+     * @return	the length of the file, or -1 if it could not be mapped.
+     */
+    protected int mapFile(OpenFile file, int address) {
+	return -1;
+    }
+
+    /**
+     * Remove the map starting at the specified address, writing its dirty
+     * pages back to the file first.
+     *
+     * @param	address	the virtual address of the first byte of the map.
+     * @return	the file that was mapped there, or <tt>null</tt> if there was
+     *		no map.
+     */
+    protected OpenFile unmapAddress(int address) {
+	return null;
+    }
+
+    /**
+     * Remove the map of the specified file, writing its dirty pages back to
+     * the file first. Called before a mapped file is closed.
+     *
+     * @param	file	the mapped file.
+     */
+    protected void unmapFile(OpenFile file) {
+    }
+
     private void handleExit(int status) {
 
+        /* requests in progress may still write to our memory                    */
+        if (ioRing != null)
+            ioRing.drain();
+
         for (int i = 0; i < 16; i++) {
             if (fdt[i].file != null)
                 handleClose(i);
@@ -695,7 +1122,17 @@ public class UserProcess {
 	syscallRead = 6,
 	syscallWrite = 7,
 	syscallClose = 8,
-	syscallUnlink = 9;
+	syscallUnlink = 9,
+	syscallMmap = 10,
+	syscallMunmap = 13,
+	syscallSendfile = 14,
+	syscallReadv = 15,
+	syscallWritev = 16,
+	syscallIoSetup = 17,
+	syscallIoEnter = 18;
+
+    /** The most buffers one <tt>readv()</tt> or <tt>writev()</tt> may use. */
+    private static final int maxIovecs = 64;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -716,6 +1153,17 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>10</td><td><tt>int  mmap(int fd, char *address);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  munmap(char *address);</tt></td></tr>
+     * <tr><td>14</td><td><tt>int  sendfile(int outFd, int inFd, int count);
+     *								</tt></td></tr>
+     * <tr><td>15</td><td><tt>int  readv(int fd, struct iovec *iov,
+     *				   int iovcnt);</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  writev(int fd, struct iovec *iov,
+     *				    int iovcnt);</tt></td></tr>
+     * <tr><td>17</td><td><tt>int  iosetup(struct io_ring *ring);</tt></td></tr>
+     * <tr><td>18</td><td><tt>int  ioenter(int toSubmit, int minComplete);
+     *								</tt></td></tr>
      * </table>
      * 
      * @param	syscall	the syscall number.
@@ -748,6 +1196,27 @@ public class UserProcess {
     case syscallUnlink: 
         return handleUnlink(a0);
 
+    case syscallMmap:
+        return handleMmap(a0, a1);
+
+    case syscallMunmap:
+        return handleMunmap(a0);
+
+    case syscallSendfile:
+        return handleSendfile(a0, a1, a2);
+
+    case syscallReadv:
+        return handleReadv(a0, a1, a2);
+
+    case syscallWritev:
+        return handleWritev(a0, a1, a2);
+
+    case syscallIoSetup:
+        return handleIoSetup(a0);
+
+    case syscallIoEnter:
+        return handleIoEnter(a0, a1);
+
     case syscallExec:
         return handleExec(a0, a1, a2);
 
@@ -797,9 +1266,14 @@ public class UserProcess {
 
     /** The program being run by this process. */
     protected Coff coff;
+    /** The name of the file containing the program. */
+    protected String coffName;
 
-    /** This process's page table. */
-    protected TranslationEntry[] pageTable;
+    /**
+     * This process's page table. Only pages with an entry take space in it,
+     * so mappings may be placed anywhere in the address space.
+     */
+    protected PageTable pageTable;
     /** The number of contiguous pages occupied by the program. */
     protected int numPages;
 
@@ -819,10 +1293,14 @@ public class UserProcess {
         private  OpenFile file = null;
         private int position = 0;
         private boolean toRemove = false;
+        private boolean mapped = false;
     } 
 
     private FileDescriptor fdt[] = new FileDescriptor[16];
 
+    /* the asynchronous I/O ring set up by iosetup(), if any            */
+    private IORing ioRing = null;
+
      private int cntOpenedFiles = 0;
 
     /* process ID                                                       */
@@ -0,0 +1,358 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * The core map records, for every physical page, which virtual pages of
+ * which processes currently map it. A page belonging to a single process has
+ * one mapping; a shared executable page has one mapping per process using it.
+ * The core map also keeps the inverse, a hash table from each resident
+ * (process, virtual page) pair to its physical page, which the TLB miss
+ * handler uses to refill the TLB.
+ *
+ * <p>
+ * When no physical page is free, the core map chooses a victim using the
+ * clock (second-chance) algorithm over the used bits of the mapping page
+ * table entries, and asks the owning processes to evict it. Pages of
+ * processes over their frame quota are preferred.
+ *
+ * <p>
+ * The core map also keeps a pool of up to <tt>CoreMap.zeroPoolSize</tt> free
+ * pages that the idle thread has already zeroed, so that faults on stack and
+ * bss pages need not zero a page themselves. Pooled pages are given back to
+ * the free list when nothing else is free.
+ *
+ * <p>
+ * All methods other than <tt>lookup()</tt> and <tt>fillZeroPool()</tt> must
+ * be called with <tt>VMKernel.pageLock</tt> held.
+ */
+public class CoreMap {
+    /**
+     * Allocate a new core map.
+     *
+     * @param	numPhysPages	the number of physical pages to manage.
+     */
+    public CoreMap(int numPhysPages) {
+	frames = new Frame[numPhysPages];
+	for (int i=0; i<numPhysPages; i++)
+	    frames[i] = new Frame();
+
+	zeroPoolSize = Config.getInteger("CoreMap.zeroPoolSize", 4);
+    }
+
+    /**
+     * Record that a virtual page of a process maps the specified physical
+     * page.
+     *
+     * @param	ppn	the physical page.
+     * @param	process	the process mapping it.
+     * @param	vpn	the virtual page that maps it.
+     */
+    public void map(int ppn, VMProcess process, int vpn) {
+	Mapping mapping = new Mapping(process, vpn);
+
+	frames[ppn].mappings.add(mapping);
+	invertedPageTable.put(mapping, ppn);
+    }
+
+    /**
+     * Record that a virtual page of a process no longer maps the specified
+     * physical page.
+     *
+     * @param	ppn	the physical page.
+     * @param	process	the process that mapped it.
+     * @param	vpn	the virtual page that mapped it.
+     */
+    public void unmap(int ppn, VMProcess process, int vpn) {
+	Mapping mapping = new Mapping(process, vpn);
+
+	Integer mappedPPN = invertedPageTable.remove(mapping);
+	Lib.assertTrue(mappedPPN != null && mappedPPN == ppn,
+		       "unmapping a page that is not mapped");
+
+	frames[ppn].mappings.remove(mapping);
+    }
+
+    /**
+     * Return the physical page mapped by a virtual page of a process. This
+     * does not block, so it may be called without the page lock.
+     *
+     * @param	process	the process.
+     * @param	vpn	the virtual page.
+     * @return	the physical page, or -1 if the page is not resident.
+     */
+    public int lookup(VMProcess process, int vpn) {
+	Integer ppn = invertedPageTable.get(new Mapping(process, vpn));
+	return (ppn == null) ? -1 : ppn;
+    }
+
+    /**
+     * Return the number of virtual pages mapping a physical page.
+     *
+     * @param	ppn	the physical page.
+     * @return	the number of mappings.
+     */
+    public int numMappings(int ppn) {
+	return frames[ppn].mappings.size();
+    }
+
+    /**
+     * Test whether a physical page may be merged with an identical one. Only
+     * pages whose every mapping is private data or already merged qualify;
+     * executable pages are already shared through the executable page cache.
+     *
+     * @param	ppn	the physical page.
+     * @return	<tt>true</tt> if the page may be merged.
+     */
+    public boolean isMergeable(int ppn) {
+	if (frames[ppn].mappings.isEmpty())
+	    return false;
+
+	for (Mapping mapping : frames[ppn].mappings) {
+	    if (!mapping.process.isMergeable(mapping.vpn))
+		return false;
+	}
+
+	return true;
+    }
+
+    /**
+     * Merge two physical pages with identical contents. Every mapping of
+     * <i>drop</i> is moved to <i>keep</i>, all mappings of <i>keep</i> become
+     * copy-on-write, and <i>drop</i> is returned to the kernel's free list.
+     *
+     * @param	keep	the physical page to keep.
+     * @param	drop	the physical page to free.
+     */
+    public void merge(int keep, int drop) {
+	Lib.assertTrue(keep != drop && isMergeable(keep) && isMergeable(drop));
+
+	for (Mapping mapping : frames[keep].mappings)
+	    mapping.process.shareMergedPage(mapping.vpn, keep);
+
+	while (!frames[drop].mappings.isEmpty()) {
+	    Mapping mapping = frames[drop].mappings.removeFirst();
+	    mapping.process.shareMergedPage(mapping.vpn, keep);
+
+	    frames[keep].mappings.add(mapping);
+	    invertedPageTable.put(mapping, keep);
+	}
+
+	UserKernel.addFreePage(drop);
+
+	Lib.debug(dbgVM, "\tmerged ppn " + drop + " into ppn " + keep);
+    }
+
+    /**
+     * Return the number of physical pages not in use, counting pre-zeroed
+     * pages. Does not block, so it may be called without the page lock.
+     *
+     * @return	the number of free pages.
+     */
+    public int numFreePages() {
+	return UserKernel.getNumFreePages() + zeroedPages.size();
+    }
+
+    /**
+     * Allocate a physical page, evicting a page in use if none is free. Wakes
+     * the page-out daemon when free pages run low.
+     *
+     * @return	the allocated physical page, or -1 if every page in use is
+     *		pinned by the kernel.
+     */
+    public int allocate() {
+	if (VMKernel.pageOutDaemon != null)
+	    VMKernel.pageOutDaemon.wakeIfNeeded();
+
+	int ppn = UserKernel.getFreePage();
+
+	while (ppn == -1) {
+	    if (!reclaimZeroed() && !evict())
+		return -1;
+
+	    ppn = UserKernel.getFreePage();
+	}
+
+	return ppn;
+    }
+
+    /**
+     * Allocate a physical page filled with zeros, taking one from the pool of
+     * pre-zeroed pages if possible.
+     *
+     * @param	evict	<tt>true</tt> if a page in use may be evicted.
+     * @return	the allocated physical page, or -1 if none was available.
+     */
+    public int allocateZeroed(boolean evict) {
+	boolean intStatus = Machine.interrupt().disable();
+	int ppn = zeroedPages.isEmpty() ? -1 : zeroedPages.removeFirst();
+	Machine.interrupt().restore(intStatus);
+
+	if (ppn != -1) {
+	    Lib.debug(dbgVM, "\tusing pre-zeroed ppn " + ppn);
+	    return ppn;
+	}
+
+	ppn = evict ? allocate() : UserKernel.getFreePage();
+	if (ppn != -1) {
+	    byte[] memory = Machine.processor().getMemory();
+	    Arrays.fill(memory, ppn*pageSize, (ppn+1)*pageSize, (byte) 0);
+	}
+
+	return ppn;
+    }
+
+    /**
+     * Return a pre-zeroed page to the kernel's free list, so that it can be
+     * used for something other than a zero-filled page.
+     *
+     * @return	<tt>true</tt> if the pool had a page to return.
+     */
+    public boolean reclaimZeroed() {
+	boolean intStatus = Machine.interrupt().disable();
+	int ppn = zeroedPages.isEmpty() ? -1 : zeroedPages.removeFirst();
+	Machine.interrupt().restore(intStatus);
+
+	if (ppn == -1)
+	    return false;
+
+	UserKernel.addFreePage(ppn);
+	return true;
+    }
+
+    /**
+     * Zero one free page and add it to the pool of pre-zeroed pages, unless
+     * the pool is full or no page is free. Run by the idle thread, so it
+     * never blocks, and may be called without the page lock.
+     */
+    public void fillZeroPool() {
+	if (zeroedPages.size() >= zeroPoolSize)
+	    return;
+
+	int ppn = UserKernel.getFreePage();
+	if (ppn == -1)
+	    return;
+
+	byte[] memory = Machine.processor().getMemory();
+	Arrays.fill(memory, ppn*pageSize, (ppn+1)*pageSize, (byte) 0);
+
+	boolean intStatus = Machine.interrupt().disable();
+	zeroedPages.add(ppn);
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Choose a page with the clock algorithm and evict it, returning its
+     * physical page to the kernel's free list. Pages of processes holding
+     * more than their frame quota are chosen first. Dirty pages only become
+     * pending writes to the swap file, so this never blocks for the disk.
+     *
+     * @return	<tt>true</tt> if a page was evicted.
+     */
+    public boolean evict() {
+	// bring the used bits of the current process up to date
+	UserProcess current = UserKernel.currentProcess();
+	if (current instanceof VMProcess)
+	    ((VMProcess) current).syncTLB();
+
+	return sweep(true) || sweep(false);
+    }
+
+    /**
+     * Evict every mapping of the specified physical page, returning it to the
+     * kernel's free list.
+     *
+     * @param	ppn	the physical page to evict.
+     */
+    public void evictFrame(int ppn) {
+	Frame frame = frames[ppn];
+
+	Lib.debug(dbgVM, "\tevicting ppn " + ppn);
+
+	while (!frame.mappings.isEmpty()) {
+	    Mapping mapping = frame.mappings.getFirst();
+	    mapping.process.evictPage(mapping.vpn);
+	}
+    }
+
+    private boolean sweep(boolean overQuotaOnly) {
+	// after one sweep every used bit is clear, so two always suffice
+	for (int step=0; step<2*frames.length; step++) {
+	    int ppn = hand;
+	    hand = (hand+1) % frames.length;
+
+	    Frame frame = frames[ppn];
+	    if (frame.mappings.isEmpty())
+		continue;
+
+	    if (overQuotaOnly && !frame.isOverQuota())
+		continue;
+
+	    boolean used = false;
+	    for (Mapping mapping : frame.mappings)
+		used |= mapping.process.testAndClearUsed(mapping.vpn);
+
+	    if (used)
+		continue;
+
+	    evictFrame(ppn);
+	    return true;
+	}
+
+	return false;
+    }
+
+    private static class Frame {
+	boolean isOverQuota() {
+	    for (Mapping mapping : mappings) {
+		if (!mapping.process.isOverQuota())
+		    return false;
+	    }
+
+	    return true;
+	}
+
+	LinkedList<Mapping> mappings = new LinkedList<Mapping>();
+    }
+
+    private static class Mapping {
+	Mapping(VMProcess process, int vpn) {
+	    this.process = process;
+	    this.vpn = vpn;
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Mapping))
+		return false;
+
+	    Mapping mapping = (Mapping) o;
+	    return mapping.process == process && mapping.vpn == vpn;
+	}
+
+	public int hashCode() {
+	    return System.identityHashCode(process)*31 + vpn;
+	}
+
+	VMProcess process;
+	int vpn;
+    }
+
+    private Frame[] frames;
+    private HashMap<Mapping, Integer> invertedPageTable =
+	new HashMap<Mapping, Integer>();
+    private int hand = 0;
+
+    /** Free pages known to be zero-filled. */
+    private LinkedList<Integer> zeroedPages = new LinkedList<Integer>();
+    private int zeroPoolSize;
+
+    private static final int pageSize = Processor.pageSize;
+    private static final char dbgVM = 'v';
+}
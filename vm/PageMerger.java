@@ -0,0 +1,93 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+import java.util.HashMap;
+
+/**
+ * A kernel thread that periodically looks for physical pages with identical
+ * contents, such as the zeroed stack pages and matching data pages of several
+ * instances of the same program, and merges them into one copy-on-write page.
+ * A process that later writes a merged page gets a private copy of it again.
+ *
+ * <p>
+ * The scan runs every <tt>PageMerger.interval</tt> ticks (default 50000).
+ */
+public class PageMerger implements Runnable {
+    /**
+     * Allocate a new page merger.
+     */
+    public PageMerger() {
+	interval = Config.getInteger("PageMerger.interval", 50000);
+    }
+
+    /**
+     * Scan physical memory every interval, forever.
+     */
+    public void run() {
+	while (true) {
+	    ThreadedKernel.alarm.waitUntil(interval);
+	    scan();
+	}
+    }
+
+    /**
+     * Hash every mergeable physical page, and merge each page whose contents
+     * equal those of an earlier page with the same hash.
+     */
+    private void scan() {
+	VMKernel.pageLock.acquire();
+
+	byte[] memory = Machine.processor().getMemory();
+	int numPhysPages = Machine.processor().getNumPhysPages();
+
+	HashMap<Integer, Integer> pagesByHash = new HashMap<Integer, Integer>();
+	int numMerged = 0;
+
+	for (int ppn=0; ppn<numPhysPages; ppn++) {
+	    if (!VMKernel.coreMap.isMergeable(ppn))
+		continue;
+
+	    int hash = hashPage(memory, ppn);
+	    Integer other = pagesByHash.get(hash);
+
+	    if (other == null) {
+		pagesByHash.put(hash, ppn);
+	    }
+	    else if (samePage(memory, other, ppn)) {
+		VMKernel.coreMap.merge(other, ppn);
+		numMerged++;
+	    }
+	}
+
+	if (numMerged > 0)
+	    Lib.debug(dbgVM, "page merger freed " + numMerged + " pages");
+
+	VMKernel.pageLock.release();
+    }
+
+    private static int hashPage(byte[] memory, int ppn) {
+	int hash = 0;
+	for (int i=ppn*pageSize; i<(ppn+1)*pageSize; i++)
+	    hash = 31*hash + memory[i];
+
+	return hash;
+    }
+
+    private static boolean samePage(byte[] memory, int ppn1, int ppn2) {
+	for (int i=0; i<pageSize; i++) {
+	    if (memory[ppn1*pageSize+i] != memory[ppn2*pageSize+i])
+		return false;
+	}
+
+	return true;
+    }
+
+    private int interval;
+
+    private static final int pageSize = Processor.pageSize;
+    private static final char dbgVM = 'v';
+}
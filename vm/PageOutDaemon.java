@@ -0,0 +1,86 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * A kernel thread that keeps a reserve of free physical pages, so that page
+ * faults rarely have to evict a page themselves, and that writes evicted
+ * dirty pages to the swap file or their mapped file.
+ *
+ * <p>
+ * When fewer than <tt>PageOutDaemon.lowWatermark</tt> pages are free, the
+ * daemon evicts pages with the clock algorithm until
+ * <tt>PageOutDaemon.highWatermark</tt> pages are free. Evicting a dirty page
+ * only copies it to a pending write, so its frame is free at once; the daemon
+ * then writes the pending pages to the swap file without holding the page
+ * lock, one request for each run of consecutive slots. Faulting threads are
+ * therefore never stalled behind swap file writes.
+ */
+public class PageOutDaemon implements Runnable {
+    /**
+     * Allocate a new page-out daemon. Must be called with
+     * <tt>VMKernel.pageLock</tt> created.
+     */
+    public PageOutDaemon() {
+	int numPhysPages = Machine.processor().getNumPhysPages();
+
+	lowWatermark = Config.getInteger("PageOutDaemon.lowWatermark",
+					 Math.max(1, numPhysPages/16));
+	highWatermark = Config.getInteger("PageOutDaemon.highWatermark",
+					  Math.max(lowWatermark+1,
+						   numPhysPages/8));
+	Lib.assertTrue(lowWatermark >= 0 && highWatermark >= lowWatermark &&
+		       highWatermark < numPhysPages);
+
+	wakeup = new Condition(VMKernel.pageLock);
+    }
+
+    /**
+     * Wake the daemon if free pages have fallen below the low watermark or
+     * pages are waiting to be written. Must be called with
+     * <tt>VMKernel.pageLock</tt> held.
+     */
+    public void wakeIfNeeded() {
+	if (isNeeded())
+	    wakeup.wake();
+    }
+
+    /**
+     * Free pages and write pending pages whenever needed, forever.
+     */
+    public void run() {
+	VMKernel.pageLock.acquire();
+
+	while (true) {
+	    while (!isNeeded())
+		wakeup.sleep();
+
+	    int numEvicted = 0;
+	    while (VMKernel.coreMap.numFreePages() < highWatermark &&
+		   VMKernel.coreMap.evict())
+		numEvicted++;
+
+	    if (numEvicted > 0)
+		Lib.debug(dbgVM, "page-out daemon freed " + numEvicted + " pages");
+
+	    VMKernel.pageLock.release();
+	    VMKernel.swapFile.flush();
+	    VMProcess.flushPendingMappedPages();
+	    VMKernel.pageLock.acquire();
+	}
+    }
+
+    private boolean isNeeded() {
+	return VMKernel.coreMap.numFreePages() < lowWatermark ||
+	    VMKernel.swapFile.hasPendingWrites() ||
+	    VMProcess.hasPendingMappedPages();
+    }
+
+    private int lowWatermark, highWatermark;
+    private Condition wakeup;
+
+    private static final char dbgVM = 'v';
+}
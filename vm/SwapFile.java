@@ -0,0 +1,373 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A swap file on the kernel's file system, divided into page-sized slots.
+ * Evicted pages are written to a slot, and read back from it when they are
+ * faulted in again.
+ *
+ * <p>
+ * Slots are first kept compressed in memory, up to
+ * <tt>SwapFile.compressedSize</tt> bytes (default 16KB; 0 disables this).
+ * Zero-filled pages take no space at all. When the compressed slots exceed
+ * that size, the least recently used ones are written to the file. The file
+ * is created the first time a slot is written to it, and grows as more slots
+ * are needed.
+ *
+ * <p>
+ * Writes to the file are never made while a page is being evicted. Instead,
+ * the page is copied to a pending write, and <tt>flush()</tt>, called by the
+ * page-out daemon, writes each run of consecutive pending slots with a
+ * single request. Reads are served from pending writes until they finish.
+ */
+public class SwapFile {
+    /**
+     * Allocate a new swap file.
+     *
+     * @param	name	the name of the file to swap to.
+     */
+    public SwapFile(String name) {
+	this.name = name;
+
+	maxCompressedSize = Config.getInteger("SwapFile.compressedSize",
+					      16*1024);
+    }
+
+    /**
+     * Allocate an unused slot.
+     *
+     * @return	the number of the allocated slot.
+     */
+    public int allocate() {
+	// keep consecutive evictions in consecutive slots, so they cluster
+	int slot;
+	if (freeSlots.contains(lastAllocated+1))
+	    slot = lastAllocated+1;
+	else if (!freeSlots.isEmpty())
+	    slot = freeSlots.first();
+	else
+	    slot = numSlots++;
+
+	freeSlots.remove(slot);
+	lastAllocated = slot;
+	return slot;
+    }
+
+    /**
+     * Return a slot to the pool of unused slots.
+     *
+     * @param	slot	the slot to free.
+     */
+    public void free(int slot) {
+	Lib.assertTrue(slot >= 0 && slot < numSlots);
+
+	byte[] contents = compressed.remove(slot);
+	if (contents != null)
+	    compressedSize -= contents.length;
+
+	pending.remove(slot);
+	freeSlots.add(slot);
+    }
+
+    /**
+     * Read the contents of a slot into a physical page.
+     *
+     * @param	slot	the slot to read.
+     * @param	ppn	the physical page to read into.
+     */
+    public void read(int slot, int ppn) {
+	read(slot, new int[] { ppn });
+    }
+
+    /**
+     * Read consecutive slots into physical pages. Each run of slots that is
+     * only on disk is read with a single file system request.
+     *
+     * @param	firstSlot	the first slot to read.
+     * @param	ppns		the physical pages to read slots
+     *				<tt>firstSlot</tt>, <tt>firstSlot+1</tt>, ...
+     *				into.
+     */
+    public void read(int firstSlot, int[] ppns) {
+	Lib.assertTrue(firstSlot >= 0 && firstSlot+ppns.length <= numSlots);
+
+	byte[] memory = Machine.processor().getMemory();
+
+	for (int i=0; i<ppns.length; ) {
+	    byte[] contents = compressed.get(firstSlot+i);
+	    if (contents != null) {
+		decompress(contents, ppns[i]);
+		numCompressedReads++;
+
+		Lib.debug(dbgVM, "\tswapped in slot " + (firstSlot+i)
+			  + " from memory to ppn " + ppns[i]);
+		i++;
+		continue;
+	    }
+
+	    byte[] page = pending.get(firstSlot+i);
+	    if (page != null) {
+		System.arraycopy(page, 0, memory, ppns[i]*pageSize, pageSize);
+
+		Lib.debug(dbgVM, "\tswapped in slot " + (firstSlot+i)
+			  + " from a pending write to ppn " + ppns[i]);
+		i++;
+		continue;
+	    }
+
+	    int run = 1;
+	    while (i+run < ppns.length &&
+		   !compressed.containsKey(firstSlot+i+run) &&
+		   !pending.containsKey(firstSlot+i+run))
+		run++;
+
+	    byte[] buffer = new byte[run*pageSize];
+	    int amount = file.read((firstSlot+i)*pageSize, buffer, 0,
+				   buffer.length);
+	    Lib.assertTrue(amount == buffer.length, "swap file read failed");
+
+	    for (int j=0; j<run; j++) {
+		System.arraycopy(buffer, j*pageSize, memory,
+				 ppns[i+j]*pageSize, pageSize);
+	    }
+
+	    Lib.debug(dbgVM, "\tswapped in slots " + (firstSlot+i) + "-"
+		      + (firstSlot+i+run-1) + " from disk");
+	    i += run;
+	}
+    }
+
+    /**
+     * Write the contents of a physical page to a slot.
+     *
+     * @param	slot	the slot to write.
+     * @param	ppn	the physical page to write.
+     */
+    public void write(int slot, int ppn) {
+	Lib.assertTrue(slot >= 0 && slot < numSlots);
+
+	byte[] memory = Machine.processor().getMemory();
+
+	pending.remove(slot);
+
+	if (maxCompressedSize > 0) {
+	    byte[] contents = compress(ppn);
+
+	    byte[] old = compressed.put(slot, contents);
+	    if (old != null)
+		compressedSize -= old.length;
+	    compressedSize += contents.length;
+
+	    Lib.debug(dbgVM, "\tswapped out ppn " + ppn + " to slot " + slot
+		      + " (" + contents.length + " bytes)");
+
+	    spill();
+	    return;
+	}
+
+	byte[] page = new byte[pageSize];
+	System.arraycopy(memory, ppn*pageSize, page, 0, pageSize);
+	pending.put(slot, page);
+
+	Lib.debug(dbgVM, "\tswapped out ppn " + ppn + " to slot " + slot);
+    }
+
+    /**
+     * Test whether any slots are waiting to be written to the file.
+     *
+     * @return	<tt>true</tt> if there are pending writes.
+     */
+    public boolean hasPendingWrites() {
+	return !pending.isEmpty();
+    }
+
+    /**
+     * Write every pending slot to the file, one request per run of
+     * consecutive slots. Blocks for the writes, so it must be called without
+     * the page lock; pages may be swapped in and out meanwhile.
+     */
+    public void flush() {
+	if (pending.isEmpty())
+	    return;
+
+	openFile();
+
+	// take a snapshot, since the pending writes can change while we block
+	int count = pending.size();
+	int[] slots = new int[count];
+	byte[][] pages = new byte[count][];
+
+	int n = 0;
+	for (Map.Entry<Integer, byte[]> entry : pending.entrySet()) {
+	    slots[n] = entry.getKey();
+	    pages[n] = entry.getValue();
+	    n++;
+	}
+
+	for (int i=0; i<count; ) {
+	    int run = 1;
+	    while (i+run < count && slots[i+run] == slots[i]+run)
+		run++;
+
+	    byte[] buffer = new byte[run*pageSize];
+	    for (int j=0; j<run; j++)
+		System.arraycopy(pages[i+j], 0, buffer, j*pageSize, pageSize);
+
+	    int amount = file.write(slots[i]*pageSize, buffer, 0, buffer.length);
+	    Lib.assertTrue(amount == buffer.length, "swap file write failed");
+
+	    numClusters++;
+	    numPagesWritten += run;
+	    Lib.debug(dbgVM, "\twrote slots " + slots[i] + "-"
+		      + (slots[i]+run-1) + " to disk");
+
+	    i += run;
+	}
+
+	// a slot written again or freed meanwhile has a newer pending write
+	for (int i=0; i<count; i++) {
+	    if (pending.get(slots[i]) == pages[i])
+		pending.remove(slots[i]);
+	}
+    }
+
+    /**
+     * Write any pending slots, then close and remove the swap file.
+     */
+    public void close() {
+	flush();
+
+	deflater.end();
+	inflater.end();
+
+	Lib.debug(dbgVM, "swap: " + numCompressedReads + " reads from memory, "
+		  + numSpills + " pages spilled, " + numPagesWritten
+		  + " pages written in " + numClusters + " requests");
+
+	if (file == null)
+	    return;
+
+	file.close();
+	file = null;
+	ThreadedKernel.fileSystem.remove(name);
+    }
+
+    /**
+     * Move the least recently used compressed slots to pending writes until
+     * the compressed slots fit in their size limit.
+     */
+    private void spill() {
+	Iterator<Map.Entry<Integer, byte[]>> i =
+	    compressed.entrySet().iterator();
+
+	while (compressedSize > maxCompressedSize && i.hasNext()) {
+	    Map.Entry<Integer, byte[]> eldest = i.next();
+	    int slot = eldest.getKey();
+	    byte[] contents = eldest.getValue();
+
+	    i.remove();
+	    compressedSize -= contents.length;
+
+	    byte[] page = new byte[pageSize];
+	    decompress(contents, page, 0);
+	    pending.put(slot, page);
+
+	    numSpills++;
+	    Lib.debug(dbgVM, "\tspilled slot " + slot + " to disk");
+	}
+    }
+
+    private void openFile() {
+	if (file == null) {
+	    file = ThreadedKernel.fileSystem.open(name, true);
+	    Lib.assertTrue(file != null, "unable to open swap file " + name);
+	}
+    }
+
+    /**
+     * Compress a physical page. A page of zeros compresses to an empty array.
+     */
+    private byte[] compress(int ppn) {
+	byte[] memory = Machine.processor().getMemory();
+
+	boolean zero = true;
+	for (int i=ppn*pageSize; i<(ppn+1)*pageSize && zero; i++)
+	    zero = (memory[i] == 0);
+
+	if (zero)
+	    return new byte[0];
+
+	deflater.reset();
+	deflater.setInput(memory, ppn*pageSize, pageSize);
+	deflater.finish();
+
+	// incompressible pages grow slightly, so leave some room
+	byte[] buffer = new byte[pageSize + pageSize/8 + 64];
+	int length = deflater.deflate(buffer);
+	Lib.assertTrue(deflater.finished());
+
+	byte[] contents = new byte[length];
+	System.arraycopy(buffer, 0, contents, 0, length);
+	return contents;
+    }
+
+    private void decompress(byte[] contents, int ppn) {
+	decompress(contents, Machine.processor().getMemory(), ppn*pageSize);
+    }
+
+    private void decompress(byte[] contents, byte[] data, int offset) {
+	if (contents.length == 0) {
+	    Arrays.fill(data, offset, offset+pageSize, (byte) 0);
+	    return;
+	}
+
+	inflater.reset();
+	inflater.setInput(contents);
+	try {
+	    int length = inflater.inflate(data, offset, pageSize);
+	    Lib.assertTrue(length == pageSize);
+	}
+	catch (DataFormatException e) {
+	    Lib.assertNotReached("corrupt compressed swap slot");
+	}
+    }
+
+    private String name;
+    private OpenFile file = null;
+
+    private int numSlots = 0;
+    private TreeSet<Integer> freeSlots = new TreeSet<Integer>();
+    private int lastAllocated = -1;
+
+    /** Slots waiting to be written to the file, in slot order. */
+    private TreeMap<Integer, byte[]> pending = new TreeMap<Integer, byte[]>();
+
+    /** Compressed slot contents, least recently used first. */
+    private LinkedHashMap<Integer, byte[]> compressed =
+	new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+    private int maxCompressedSize;
+    private int compressedSize = 0;
+
+    private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private Inflater inflater = new Inflater();
+
+    private int numCompressedReads = 0, numSpills = 0;
+    private int numClusters = 0, numPagesWritten = 0;
+
+    private static final int pageSize = Processor.pageSize;
+    private static final char dbgVM = 'v';
+}
@@ -5,8 +5,22 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.util.LinkedList;
+
 /**
- * A kernel that can support multiple demand-paging user processes.
+ * A kernel that can support multiple demand-paging user processes. When
+ * physical memory runs low, a page-out daemon evicts pages by the clock
+ * algorithm and writes dirty pages to a swap file in clusters.
+ *
+ * <p>
+ * Each process is given a frame quota, adjusted by its page-fault frequency,
+ * beyond which it replaces its own pages. Working sets are estimated by
+ * sampling used bits at timer interrupts; when they no longer fit in memory
+ * together, processes are suspended and swapped out until they do.
+ *
+ * <p>
+ * Aligned regions of private pages that are all resident are promoted to
+ * large pages, so that one TLB entry translates the whole region.
  */
 public class VMKernel extends UserKernel {
     /**
@@ -21,6 +35,103 @@ public class VMKernel extends UserKernel {
      */
     public void initialize(String[] args) {
 	super.initialize(args);
+
+	pageLock = new Lock();
+	coreMap = new CoreMap(Machine.processor().getNumPhysPages());
+	swapFile = new SwapFile(Config.getString("VMKernel.swapFile",
+						 "nachos.swp"));
+
+	int numPhysPages = Machine.processor().getNumPhysPages();
+	minQuota = Config.getInteger("VMKernel.minQuota", 4);
+	initialQuota = Config.getInteger("VMKernel.initialQuota",
+					 Math.max(minQuota, numPhysPages/4));
+	pffLow = Config.getInteger("VMKernel.pffLow", 2000);
+	pffHigh = Config.getInteger("VMKernel.pffHigh", 20000);
+	sampleInterval = Config.getInteger("VMKernel.sampleInterval", 5000);
+	workingSetWindow = Config.getInteger("VMKernel.workingSetWindow", 4);
+	prefetchWindow = Config.getInteger("VMKernel.prefetchWindow", 2);
+	maxPrefetchWindow = Config.getInteger("VMKernel.maxPrefetchWindow", 8);
+	promoteLargePages = Config.getBoolean("VMKernel.promoteLargePages",
+					      true);
+
+	Machine.timer().setInterruptHandler(new Runnable() {
+		public void run() { timerInterrupt(); }
+	    });
+
+	KThread.setIdleTask(new Runnable() {
+		public void run() { coreMap.fillZeroPool(); }
+	    });
+
+	pageOutDaemon = new PageOutDaemon();
+	KThread pageOut = new KThread(pageOutDaemon);
+	pageOut.setName("page-out daemon");
+	pageOut.fork();
+
+	if (Config.getBoolean("VMKernel.mergePages", true)) {
+	    KThread merger = new KThread(new PageMerger());
+	    merger.setName("page merger");
+	    merger.fork();
+	}
+    }
+
+    /**
+     * The timer interrupt handler. Runs the alarm, and periodically samples
+     * the working set of every process.
+     */
+    public void timerInterrupt() {
+	alarm.timerInterrupt();
+
+	long time = Machine.timer().getTime();
+	if (time - lastSampleTime >= sampleInterval) {
+	    lastSampleTime = time;
+	    sampleWorkingSets();
+	}
+    }
+
+    /**
+     * Estimate the working set of every running process, and suspend or
+     * resume processes so that the working sets of the running processes fit
+     * in physical memory. Called with interrupts disabled.
+     */
+    private static void sampleWorkingSets() {
+	int numPhysPages = Machine.processor().getNumPhysPages();
+
+	sampleNumber++;
+
+	int totalWorkingSet = 0;
+	int numRunning = 0;
+	VMProcess largest = null;
+
+	for (VMProcess process : processes) {
+	    if (process.isSuspended())
+		continue;
+
+	    int size = process.sampleWorkingSet(sampleNumber);
+	    totalWorkingSet += size;
+	    numRunning++;
+
+	    if (!process.isSuspending() &&
+		(largest == null || size > largest.getWorkingSetSize()))
+		largest = process;
+	}
+
+	if (totalWorkingSet > numPhysPages) {
+	    // thrashing: swap out the largest process at its next fault
+	    if (numRunning > 1 && largest != null) {
+		Lib.debug(dbgVM, "thrashing (working sets " + totalWorkingSet
+			  + " pages), suspending a process");
+		largest.suspend();
+	    }
+	}
+	else if (!suspendedProcesses.isEmpty()) {
+	    VMProcess process = suspendedProcesses.getFirst();
+	    if (numRunning == 0 ||
+		totalWorkingSet+process.getWorkingSetSize() <= numPhysPages) {
+		suspendedProcesses.removeFirst();
+		Lib.debug(dbgVM, "resuming a suspended process");
+		process.resume();
+	    }
+	}
     }
 
     /**
@@ -41,9 +152,52 @@ public class VMKernel extends UserKernel {
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+	swapFile.close();
+
 	super.terminate();
     }
 
+    /** Serializes page faults, eviction, and process teardown. */
+    public static Lock pageLock = null;
+
+    /** The owners of every physical page. */
+    public static CoreMap coreMap = null;
+
+    /** Backing store for evicted pages. */
+    public static SwapFile swapFile = null;
+
+    /** Keeps pages free and writes evicted pages to the swap file. */
+    public static PageOutDaemon pageOutDaemon = null;
+
+    /** Every process with an address space. */
+    public static LinkedList<VMProcess> processes =
+	new LinkedList<VMProcess>();
+    /** Processes swapped out to relieve thrashing, in suspension order. */
+    public static LinkedList<VMProcess> suspendedProcesses =
+	new LinkedList<VMProcess>();
+
+    /** The smallest frame quota a process can be reduced to. */
+    public static int minQuota;
+    /** The frame quota of a new process. */
+    public static int initialQuota;
+    /** Faults closer together than this many ticks grow the quota. */
+    public static int pffLow;
+    /** Faults further apart than this many ticks shrink the quota. */
+    public static int pffHigh;
+    /** The number of ticks between working set samples. */
+    public static int sampleInterval;
+    /** The number of samples a page stays in the working set after use. */
+    public static int workingSetWindow;
+    /** The initial number of pages prefetched after a sequential fault. */
+    public static int prefetchWindow;
+    /** The largest the prefetch window can grow to. */
+    public static int maxPrefetchWindow;
+    /** <tt>true</tt> if fully resident regions become large pages. */
+    public static boolean promoteLargePages;
+
+    private static long lastSampleTime = 0;
+    private static int sampleNumber = 0;
+
     // dummy variables to make javac smarter
     private static VMProcess dummy1 = null;
 
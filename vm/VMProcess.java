@@ -5,8 +5,23 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * A <tt>UserProcess</tt> that supports demand-paging.
+ *
+ * <p>
+ * Files mapped with <tt>mmap()</tt> are paged the same way, above the
+ * program's pages: a page is read from the file straight into its physical
+ * page when first touched, and a dirty page is written back to the file,
+ * not to swap, when it is evicted or the map is removed. Neither the read nor
+ * the write is made with the page lock held: an evicted dirty page is copied
+ * to a pending write, which the page-out daemon writes to the file, and which
+ * removing the map writes at once.
  */
 public class VMProcess extends UserProcess {
     /**
@@ -22,6 +37,9 @@ public class VMProcess extends UserProcess {
      */
     public void saveState() {
 	super.saveState();
+
+	if (Machine.processor().hasTLB())
+	    saveTLB();
     }
 
     /**
@@ -29,25 +47,1353 @@ public class VMProcess extends UserProcess {
      * <tt>UThread.restoreState()</tt>.
      */
     public void restoreState() {
-	super.restoreState();
+	if (Machine.processor().hasTLB())
+	    restoreTLB();
+	else
+	    super.restoreState();
+    }
+
+    /**
+     * Return the runtime statistics of this process. Only the TLB miss and
+     * flush counts are maintained.
+     *
+     * @return	the statistics of this process.
+     */
+    public Stats getStats() {
+	return stats;
     }
 
     /**
      * Initializes page tables for this process so that the executable can be
-     * demand-paged.
+     * demand-paged. No physical memory is allocated here; every page starts
+     * out invalid and is loaded by <tt>handlePageFault()</tt> the first time
+     * it is touched.
      *
      * @return	<tt>true</tt> if successful.
      */
     protected boolean loadSections() {
-	return super.loadSections();
+	for (int s=0; s<coff.getNumSections(); s++) {
+	    CoffSection section = coff.getSection(s);
+
+	    Lib.debug(dbgProcess, "\tdeferring " + section.getName()
+		      + " section (" + section.getLength() + " pages)");
+
+	    for (int i=0; i<section.getLength(); i++) {
+		pageTable.setReadOnly(section.getFirstVPN()+i,
+				      section.isReadOnly());
+	    }
+	}
+
+	swapSlots = new int[numPages];
+	Arrays.fill(swapSlots, -1);
+
+	referenced = new boolean[numPages];
+	lastUsedSample = new int[numPages];
+	prefetched = new boolean[numPages];
+	prefetchWindow = VMKernel.prefetchWindow;
+	copyOnWrite = new boolean[numPages];
+	frameQuota = VMKernel.initialQuota;
+	lastFaultTime = Machine.timer().getTime();
+
+	VMKernel.processes.add(this);
+
+	return true;
     }
 
     /**
-     * Release any resources allocated by <tt>loadSections()</tt>.
+     * Release any resources allocated by <tt>loadSections()</tt>, including
+     * physical pages and swap slots.
      */
     protected void unloadSections() {
-	super.unloadSections();
-    }    
+	VMKernel.pageLock.acquire();
+
+	if (Machine.processor().hasTLB())
+	    flushTLB();
+
+	while (!mappedFiles.isEmpty())
+	    unmap(mappedFiles.getFirst());
+
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    if (pageTable.isValid(vpn)) {
+		VMKernel.coreMap.unmap(pageTable.getPPN(vpn), this, vpn);
+		numResident--;
+		freePage(vpn);
+	    }
+
+	    if (swapSlots != null && swapSlots[vpn] != -1) {
+		VMKernel.swapFile.free(swapSlots[vpn]);
+		swapSlots[vpn] = -1;
+	    }
+	}
+
+	VMKernel.processes.remove(this);
+
+	VMKernel.pageLock.release();
+
+	Lib.debug(dbgVM, "\tTLB misses " + stats.numTLBMisses
+		  + ", TLB flushes " + stats.numTLBFlushes
+		  + ", prefetched " + numPrefetched
+		  + " (hits " + numPrefetchHits
+		  + ", misses " + numPrefetchMisses + "), "
+		  + numPromotions + " large pages");
+    }
+
+    /**
+     * Return a copy of the page table entry for the specified virtual page,
+     * loading the page first if it is not yet in memory.
+     *
+     * @param	vpn	the virtual page to access.
+     * @return	the page table entry for the page, or <tt>null</tt> if the
+     *		page cannot be accessed.
+     */
+    protected TranslationEntry getPageEntry(int vpn) {
+	if (!isAddressable(vpn))
+	    return null;
+
+	// another process may evict the page while we wait for the fault
+	while (!pageTable.isValid(vpn)) {
+	    if (!handlePageFault(vpn))
+		return null;
+	}
+
+	notePrefetchHit(vpn);
+
+	return pageTable.get(vpn);
+    }
+
+    /**
+     * Return a copy of the page table entry for the specified virtual page so
+     * the kernel can write it, loading the page first if necessary, and making a
+     * private copy if it is merged with other pages.
+     *
+     * @param	vpn	the virtual page to write.
+     * @return	the page table entry for the page, or <tt>null</tt> if the
+     *		page cannot be written.
+     */
+    protected TranslationEntry getWritablePageEntry(int vpn) {
+	while (true) {
+	    TranslationEntry entry = getPageEntry(vpn);
+	    if (entry == null)
+		return null;
+
+	    if (!entry.readOnly)
+		return entry;
+
+	    if (!copyOnWrite[vpn] || !breakCopyOnWrite(vpn))
+		return null;
+	}
+    }
+
+    /**
+     * Bring the specified virtual page into memory, evicting another page if
+     * no physical page is free. Pages that were written to swap are read back
+     * from it. Otherwise, pages of COFF sections are loaded from the
+     * executable, with read-only pages shared through the kernel's executable
+     * page cache, and stack and argument pages are zero-filled.
+     *
+     * @param	vpn	the virtual page to load.
+     * @return	<tt>true</tt> if the page was loaded.
+     */
+    protected boolean handlePageFault(int vpn) {
+	Lib.assertTrue(vpn >= 0);
+
+	if (suspending)
+	    swapOut();
+
+	VMKernel.pageLock.acquire();
+
+	if (pageTable.isValid(vpn)) {
+	    VMKernel.pageLock.release();
+	    return true;
+	}
+
+	// the page may belong to a map removed while we waited for the lock
+	MappedFile mappedFile = (vpn < numPages) ? null : findMappedFile(vpn);
+	if (vpn >= numPages && mappedFile == null) {
+	    VMKernel.pageLock.release();
+	    return false;
+	}
+
+	// another thread is reading the page from its file
+	if (mappedFile != null && mappedFile.loading.contains(vpn)) {
+	    mappedFile.pageLoaded.sleep();
+	    VMKernel.pageLock.release();
+	    return handlePageFault(vpn);
+	}
+
+	adjustQuota();
+	if (numResident >= frameQuota)
+	    replaceOwnPage();
+
+	int ppn = (mappedFile != null) ? fetchMappedPage(mappedFile, vpn)
+	    : fetchPage(vpn, true);
+	if (ppn == -1) {
+	    Lib.debug(dbgVM, "\tout of physical memory loading vpn " + vpn);
+	    VMKernel.pageLock.release();
+	    return false;
+	}
+
+	Lib.debug(dbgVM, "\tpage fault: vpn " + vpn + " -> ppn " + ppn);
+
+	installPage(vpn, ppn);
+
+	if (mappedFile != null) {
+	    VMKernel.pageLock.release();
+	    return true;
+	}
+
+	// a fault right after the last one, in either direction, is part of a
+	// sequential run: the text, a growing stack, or an array sweep
+	int direction = 1;
+	boolean sequential = false;
+	if (vpn == nextSequentialVPN) {
+	    direction = faultDirection;
+	    sequential = true;
+	}
+	else if (vpn == lastFaultVPN+1 || vpn == lastFaultVPN-1) {
+	    direction = vpn - lastFaultVPN;
+	    sequential = true;
+	}
+
+	lastFaultVPN = vpn;
+	faultDirection = direction;
+	nextSequentialVPN = vpn + direction;
+
+	if (sequential)
+	    nextSequentialVPN += prefetch(vpn, direction) * direction;
+
+	if (VMKernel.promoteLargePages) {
+	    promote(vpn);
+	    if (nextSequentialVPN-direction != vpn)
+		promote(nextSequentialVPN-direction);
+	}
+
+	VMKernel.pageLock.release();
+	return true;
+    }
+
+    /**
+     * Load the contents of a virtual page into a newly allocated physical
+     * page, without mapping it. Pages that were written to swap are read
+     * back from it. Otherwise, pages of COFF sections are loaded from the
+     * executable, with read-only pages shared through the kernel's executable
+     * page cache, and stack, argument, and bss pages are zero-filled.
+     *
+     * @param	vpn	the virtual page to load.
+     * @param	evict	<tt>true</tt> if another page may be evicted to make
+     *			room.
+     * @return	the physical page holding the contents, or -1 if none was
+     *		available.
+     */
+    private int fetchPage(int vpn, boolean evict) {
+	int s = findSection(vpn);
+	CoffSection section = (s == -1) ? null : coff.getSection(s);
+
+	int ppn;
+	if (section != null && section.isReadOnly()) {
+	    do {
+		ppn = UserKernel.executableCache.acquire(coffName, s, section,
+							 vpn-section.getFirstVPN());
+	    } while (ppn == -1 && evict &&
+		     (VMKernel.coreMap.reclaimZeroed() ||
+		      VMKernel.coreMap.evict()));
+
+	    return ppn;
+	}
+
+	// stack, arguments and bss can use a page the idle thread zeroed
+	if (swapSlots[vpn] == -1 &&
+	    (section == null || !section.isInitialzed()))
+	    return VMKernel.coreMap.allocateZeroed(evict);
+
+	ppn = evict ? VMKernel.coreMap.allocate() : UserKernel.getFreePage();
+	if (ppn == -1)
+	    return -1;
+
+	loadPrivatePage(vpn, ppn);
+	return ppn;
+    }
+
+    /**
+     * Load the contents of a private (not read-only) virtual page into the
+     * specified physical page: from swap, from the executable, or by
+     * zero-filling.
+     */
+    private void loadPrivatePage(int vpn, int ppn) {
+	int s = findSection(vpn);
+	CoffSection section = (s == -1) ? null : coff.getSection(s);
+	Lib.assertTrue(section == null || !section.isReadOnly());
+
+	if (swapSlots[vpn] != -1) {
+	    VMKernel.swapFile.read(swapSlots[vpn], ppn);
+	}
+	else if (section != null && section.isInitialzed()) {
+	    section.loadPage(vpn-section.getFirstVPN(), ppn);
+	}
+	else {
+	    byte[] memory = Machine.processor().getMemory();
+	    Arrays.fill(memory, ppn*pageSize, (ppn+1)*pageSize, (byte) 0);
+	}
+    }
+
+    /**
+     * Map a virtual page to the physical page holding its contents.
+     */
+    private void installPage(int vpn, int ppn) {
+	TranslationEntry entry = pageTable.get(vpn);
+
+	entry.ppn = ppn;
+	entry.valid = true;
+	entry.used = false;
+	entry.dirty = false;
+	pageTable.put(vpn, entry);
+
+	VMKernel.coreMap.map(ppn, this, vpn);
+	numResident++;
+    }
+
+    /**
+     * Load the pages following a sequential fault, up to the prefetch window,
+     * into free physical pages. Runs of pages held in consecutive swap slots
+     * are read with a single request. Prefetching never evicts a page or
+     * exceeds the frame quota, and stops at the first page already resident.
+     *
+     * @param	vpn		the page that faulted.
+     * @param	direction	1 to prefetch upwards, -1 downwards.
+     * @return	the number of pages prefetched.
+     */
+    private int prefetch(int vpn, int direction) {
+	int[] vpns = new int[prefetchWindow];
+	int count = 0;
+
+	for (int i=1; i<=prefetchWindow; i++) {
+	    int next = vpn + i*direction;
+	    if (next < 0 || next >= numPages || pageTable.isValid(next))
+		break;
+
+	    vpns[count++] = next;
+	}
+
+	int loaded = 0;
+	while (loaded < count && numResident < frameQuota) {
+	    int next = vpns[loaded];
+	    int run = 1;
+
+	    if (swapSlots[next] != -1) {
+		while (loaded+run < count &&
+		       numResident+run < frameQuota &&
+		       swapSlots[vpns[loaded+run]] ==
+		       swapSlots[next] + run*direction)
+		    run++;
+	    }
+
+	    if (run > 1) {
+		int[] ppns = new int[run];
+		for (int i=0; i<run; i++) {
+		    ppns[i] = UserKernel.getFreePage();
+		    if (ppns[i] == -1) {
+			for (int j=0; j<i; j++)
+			    UserKernel.addFreePage(ppns[j]);
+			return loaded;
+		    }
+		}
+
+		int firstSlot = Math.min(swapSlots[next],
+					 swapSlots[vpns[loaded+run-1]]);
+		VMKernel.swapFile.read(firstSlot, ppns);
+
+		for (int i=0; i<run; i++) {
+		    int v = vpns[loaded+i];
+		    installPage(v, ppns[swapSlots[v]-firstSlot]);
+		    prefetched[v] = true;
+		}
+	    }
+	    else {
+		int ppn = fetchPage(next, false);
+		if (ppn == -1)
+		    return loaded;
+
+		installPage(next, ppn);
+		prefetched[next] = true;
+	    }
+
+	    loaded += run;
+	}
+
+	if (loaded > 0) {
+	    numPrefetched += loaded;
+	    Lib.debug(dbgVM, "\tprefetched " + loaded + " pages after vpn "
+		      + vpn);
+	}
+
+	return loaded;
+    }
+
+    /**
+     * Note a reference to a page, adapting the prefetch window if the page was
+     * prefetched and this is its first use.
+     */
+    private void notePrefetchHit(int vpn) {
+	if (vpn >= numPages || !prefetched[vpn])
+	    return;
+
+	prefetched[vpn] = false;
+	numPrefetchHits++;
+
+	// widen the window once a whole window's worth has been used
+	if (++prefetchHitStreak >= prefetchWindow) {
+	    prefetchHitStreak = 0;
+	    prefetchWindow = Math.min(2*prefetchWindow,
+				      VMKernel.maxPrefetchWindow);
+	}
+    }
+
+    /**
+     * Promote the aligned region containing the specified virtual page to a
+     * large page, if every page in it is privately writable and the pages
+     * missing from memory fit in the frame quota. Unless the region already
+     * occupies an aligned run of physical pages, it is moved to a free run,
+     * loading the missing pages on the way. Called with the page lock held.
+     */
+    private void promote(int vpn) {
+	int size = getLargePageSize();
+	int base = vpn & ~(size-1);
+	if (size == 1 || base < 0 || base+size > numPages ||
+	    pageTable.isLarge(base))
+	    return;
+
+	int basePPN = pageTable.isValid(base) ? pageTable.getPPN(base) : -1;
+	boolean aligned = (basePPN % size == 0);
+	int numMissing = 0;
+
+	for (int i=0; i<size; i++) {
+	    int v = base+i;
+
+	    // read-only covers shared executable and merged pages
+	    if (pageTable.isReadOnly(v))
+		return;
+
+	    if (!pageTable.isValid(v)) {
+		numMissing++;
+		aligned = false;
+	    }
+	    else if (pageTable.getPPN(v) != basePPN+i) {
+		aligned = false;
+	    }
+	}
+
+	if (numResident+numMissing > frameQuota)
+	    return;
+
+	if (!aligned) {
+	    basePPN = UserKernel.getFreePageRun(size);
+	    if (basePPN == -1)
+		return;
+
+	    byte[] memory = Machine.processor().getMemory();
+	    for (int i=0; i<size; i++) {
+		int v = base+i;
+
+		if (!pageTable.isValid(v)) {
+		    loadPrivatePage(v, basePPN+i);
+		    installPage(v, basePPN+i);
+		    continue;
+		}
+
+		invalidateTLBEntry(v);
+
+		int oldPPN = pageTable.getPPN(v);
+		System.arraycopy(memory, oldPPN*pageSize,
+				 memory, (basePPN+i)*pageSize, pageSize);
+
+		VMKernel.coreMap.unmap(oldPPN, this, v);
+		pageTable.setPPN(v, basePPN+i);
+		VMKernel.coreMap.map(basePPN+i, this, v);
+		UserKernel.addFreePage(oldPPN);
+	    }
+	}
+
+	pageTable.setLarge(base, true);
+	numPromotions++;
+
+	Lib.debug(dbgVM, "\tpromoted vpn " + base + "-" + (base+size-1)
+		  + " to a large page at ppn " + basePPN
+		  + (aligned ? "" : " (moved)"));
+    }
+
+    /**
+     * Break up the large page containing the specified virtual page, if any,
+     * so that its pages can be evicted or remapped one at a time. Called with
+     * the page lock held.
+     */
+    private void demote(int vpn) {
+	int size = getLargePageSize();
+	int base = vpn & ~(size-1);
+	if (size == 1 || !pageTable.isLarge(base))
+	    return;
+
+	invalidateTLBEntry(base);
+	pageTable.setLarge(base, false);
+    }
+
+    /**
+     * Return the number of pages in a large page, or 1 if there are none.
+     */
+    private static int getLargePageSize() {
+	Processor processor = Machine.processor();
+	return processor.hasTLB() ? processor.getLargePageSize() : 1;
+    }
+
+    /**
+     * Adjust the frame quota of this process by the time since its last page
+     * fault. Frequent faults grow the quota by a page; infrequent faults
+     * shrink it to the estimated working set.
+     */
+    private void adjustQuota() {
+	long time = Machine.timer().getTime();
+	long interval = time - lastFaultTime;
+	lastFaultTime = time;
+
+	if (interval < VMKernel.pffLow) {
+	    if (frameQuota < Machine.processor().getNumPhysPages())
+		frameQuota++;
+	}
+	else if (interval > VMKernel.pffHigh) {
+	    frameQuota = Math.max(VMKernel.minQuota, workingSetSize);
+	}
+    }
+
+    /**
+     * Evict one of this process's own pages, chosen by the clock algorithm
+     * over its page table. Called when the process is at its frame quota.
+     */
+    private void replaceOwnPage() {
+	syncTLB();
+
+	for (int step=0; step<2*numPages; step++) {
+	    int vpn = localHand;
+	    localHand = (localHand+1) % numPages;
+
+	    if (pageTable.isValid(vpn) && !testAndClearUsed(vpn)) {
+		VMKernel.coreMap.evictFrame(pageTable.getPPN(vpn));
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Test whether this process holds more pages than its frame quota.
+     *
+     * @return	<tt>true</tt> if this process is over its quota.
+     */
+    boolean isOverQuota() {
+	return numResident > frameQuota;
+    }
+
+    /**
+     * Record which pages were used since the last sample, and return the
+     * number used in the last <tt>VMKernel.workingSetWindow</tt> samples.
+     * Called at a timer interrupt, with interrupts disabled.
+     *
+     * @param	sample	the number of this sample.
+     * @return	the estimated working set size, in pages.
+     */
+    int sampleWorkingSet(int sample) {
+	if (this == UserKernel.currentProcess())
+	    syncTLB();
+
+	workingSetSize = 0;
+
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    // keep the reference for the clock, which also clears used bits
+	    if (pageTable.isValid(vpn) && pageTable.isUsed(vpn)) {
+		pageTable.setUsed(vpn, false);
+		referenced[vpn] = true;
+		lastUsedSample[vpn] = sample;
+	    }
+
+	    if (lastUsedSample[vpn] > 0 &&
+		lastUsedSample[vpn] > sample - VMKernel.workingSetWindow)
+		workingSetSize++;
+	}
+
+	return workingSetSize;
+    }
+
+    /**
+     * Return the working set size estimated at the last sample.
+     *
+     * @return	the working set size, in pages.
+     */
+    int getWorkingSetSize() {
+	return workingSetSize;
+    }
+
+    /**
+     * Ask this process to swap itself out at its next page fault, and stay
+     * suspended until <tt>resume()</tt> is called.
+     */
+    void suspend() {
+	suspending = true;
+    }
+
+    /**
+     * Test whether this process has been asked to suspend itself but has not
+     * yet done so.
+     *
+     * @return	<tt>true</tt> if the process is about to be suspended.
+     */
+    boolean isSuspending() {
+	return suspending;
+    }
+
+    /**
+     * Test whether this process is swapped out and suspended.
+     *
+     * @return	<tt>true</tt> if the process is suspended.
+     */
+    boolean isSuspended() {
+	return suspended;
+    }
+
+    /**
+     * Let a suspended process run again.
+     */
+    void resume() {
+	Lib.assertTrue(suspended);
+
+	suspended = false;
+	resumeSemaphore.V();
+    }
+
+    /**
+     * Evict every page of this process, then block until the kernel resumes
+     * it.
+     */
+    private void swapOut() {
+	VMKernel.pageLock.acquire();
+
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    if (pageTable.isValid(vpn))
+		evictPage(vpn);
+	}
+
+	for (MappedFile mappedFile : mappedFiles) {
+	    for (int i=0; i<mappedFile.numPages; i++) {
+		if (pageTable.isValid(mappedFile.firstVPN+i))
+		    evictPage(mappedFile.firstVPN+i);
+	    }
+	}
+
+	Lib.debug(dbgVM, "\tswapped out, suspending");
+
+	suspending = false;
+	suspended = true;
+	VMKernel.suspendedProcesses.add(this);
+
+	VMKernel.pageLock.release();
+
+	resumeSemaphore.P();
+
+	Lib.debug(dbgVM, "\tresumed");
+
+	frameQuota = Math.max(VMKernel.minQuota, workingSetSize);
+	lastFaultTime = Machine.timer().getTime();
+    }
+
+    /**
+     * Test and clear the used bit of a resident page. Called by the core map
+     * when looking for a page to evict.
+     *
+     * @param	vpn	the virtual page to test.
+     * @return	<tt>true</tt> if the page was used since the last call.
+     */
+    boolean testAndClearUsed(int vpn) {
+	Lib.assertTrue(pageTable.isValid(vpn));
+
+	if (vpn >= numPages) {
+	    boolean used = pageTable.isUsed(vpn);
+	    pageTable.setUsed(vpn, false);
+	    return used;
+	}
+
+	boolean used = pageTable.isUsed(vpn) || referenced[vpn];
+	pageTable.setUsed(vpn, false);
+	referenced[vpn] = false;
+	return used;
+    }
+
+    /**
+     * Remove a resident page from memory. A dirty page is written to swap
+     * first, or back to its file if it is mapped; a clean page can be
+     * recovered from swap, the executable, its file, or by zero-filling.
+     * Called by the core map with the page lock held.
+     *
+     * @param	vpn	the virtual page to evict.
+     */
+    void evictPage(int vpn) {
+	Lib.assertTrue(pageTable.isValid(vpn));
+
+	if (vpn >= numPages) {
+	    evictMappedPage(findMappedFile(vpn), vpn);
+	    return;
+	}
+
+	demote(vpn);
+
+	// the TLB may hold the only record that the page is dirty
+	invalidateTLBEntry(vpn);
+	TranslationEntry entry = pageTable.get(vpn);
+
+	VMKernel.coreMap.unmap(entry.ppn, this, vpn);
+	numResident--;
+	referenced[vpn] = false;
+
+	// a prefetched page evicted before use was a wasted prefetch
+	if (prefetched[vpn]) {
+	    prefetched[vpn] = false;
+	    numPrefetchMisses++;
+	    prefetchHitStreak = 0;
+	    prefetchWindow = Math.max(1, prefetchWindow/2);
+	}
+
+	// invalidate before writing, so that a fault on this page waits for
+	// the write to finish and then reads it back from swap
+	pageTable.setValid(vpn, false);
+
+	if (entry.dirty) {
+	    Lib.assertTrue(!entry.readOnly || copyOnWrite[vpn]);
+
+	    if (swapSlots[vpn] == -1)
+		swapSlots[vpn] = VMKernel.swapFile.allocate();
+
+	    VMKernel.swapFile.write(swapSlots[vpn], entry.ppn);
+	}
+
+	Lib.debug(dbgVM, "\tevicted vpn " + vpn + " from ppn " + entry.ppn);
+
+	freePage(vpn);
+    }
+
+    /**
+     * Test whether a resident page holds private data that may be merged with
+     * an identical page, or has been merged already. Pages of a large page
+     * and pages of mapped files are not merged.
+     *
+     * @param	vpn	the virtual page to test.
+     * @return	<tt>true</tt> if the page may be merged.
+     */
+    boolean isMergeable(int vpn) {
+	if (vpn >= numPages)
+	    return false;
+
+	int size = getLargePageSize();
+	if (size > 1 && pageTable.isLarge(vpn & ~(size-1)))
+	    return false;
+
+	return !pageTable.isReadOnly(vpn) || copyOnWrite[vpn];
+    }
+
+    /**
+     * Map a virtual page to a physical page shared with identical pages, and
+     * make it copy-on-write. Called by the core map, which updates its own
+     * records of the mapping.
+     *
+     * @param	vpn	the virtual page.
+     * @param	ppn	the shared physical page.
+     */
+    void shareMergedPage(int vpn, int ppn) {
+	Lib.assertTrue(pageTable.isValid(vpn));
+
+	pageTable.setPPN(vpn, ppn);
+	pageTable.setReadOnly(vpn, true);
+	copyOnWrite[vpn] = true;
+    }
+
+    /**
+     * Give this process a private, writable copy of a merged page. If no
+     * other process still shares the page, it is simply made writable.
+     *
+     * @param	vpn	the virtual page to copy.
+     * @return	<tt>true</tt> if the access should be retried, or
+     *		<tt>false</tt> if no physical page was available.
+     */
+    private boolean breakCopyOnWrite(int vpn) {
+	VMKernel.pageLock.acquire();
+
+	int oldPPN = pageTable.getPPN(vpn);
+
+	if (pageTable.isValid(vpn) && copyOnWrite[vpn] &&
+	    VMKernel.coreMap.numMappings(oldPPN) > 1) {
+	    int ppn = VMKernel.coreMap.allocate();
+	    if (ppn == -1) {
+		VMKernel.pageLock.release();
+		return false;
+	    }
+
+	    // allocating may have evicted the page we are copying
+	    if (!pageTable.isValid(vpn) || pageTable.getPPN(vpn) != oldPPN) {
+		UserKernel.addFreePage(ppn);
+		VMKernel.pageLock.release();
+		return true;
+	    }
+
+	    byte[] memory = Machine.processor().getMemory();
+	    System.arraycopy(memory, oldPPN*pageSize, memory, ppn*pageSize,
+			     pageSize);
+
+	    invalidateTLBEntry(vpn);
+	    VMKernel.coreMap.unmap(oldPPN, this, vpn);
+	    pageTable.setPPN(vpn, ppn);
+	    VMKernel.coreMap.map(ppn, this, vpn);
+
+	    Lib.debug(dbgVM, "\tcopied merged ppn " + oldPPN + " to ppn " + ppn
+		      + " for vpn " + vpn);
+	}
+
+	if (pageTable.isValid(vpn) && copyOnWrite[vpn]) {
+	    invalidateTLBEntry(vpn);
+	    copyOnWrite[vpn] = false;
+	    pageTable.setReadOnly(vpn, false);
+	}
+
+	VMKernel.pageLock.release();
+	return true;
+    }
+
+    /**
+     * Write back and invalidate any TLB entry for the specified virtual page,
+     * including a large entry covering it, if this process is running.
+     */
+    private void invalidateTLBEntry(int vpn) {
+	Processor processor = Machine.processor();
+	if (this != UserKernel.currentProcess() || !processor.hasTLB())
+	    return;
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    TranslationEntry tlbEntry = processor.readTLBEntry(i);
+	    if (tlbEntry.valid &&
+		(tlbEntry.vpn == vpn ||
+		 (tlbEntry.large && vpn > tlbEntry.vpn &&
+		  vpn < tlbEntry.vpn+processor.getLargePageSize()))) {
+		syncTLBEntry(i);
+		processor.writeTLBEntry(i, new TranslationEntry());
+	    }
+	}
+    }
+
+    /**
+     * Return the physical page of an unmapped virtual page to the executable
+     * page cache or the kernel's free list. A merged page is only freed once
+     * no process maps it.
+     */
+    private void freePage(int vpn) {
+	TranslationEntry entry = pageTable.get(vpn);
+
+	if (copyOnWrite[vpn]) {
+	    if (VMKernel.coreMap.numMappings(entry.ppn) == 0)
+		UserKernel.addFreePage(entry.ppn);
+
+	    copyOnWrite[vpn] = false;
+	    entry.readOnly = false;
+	}
+	else if (entry.readOnly) {
+	    UserKernel.executableCache.release(entry.ppn);
+	}
+	else {
+	    UserKernel.addFreePage(entry.ppn);
+	}
+
+	entry.valid = false;
+	entry.used = false;
+	entry.dirty = false;
+	pageTable.put(vpn, entry);
+    }
+
+    /**
+     * Map an open file into this process's address space, above the
+     * program's pages. No page is read until it is touched.
+     *
+     * @param	file	the file to map.
+     * @param	address	the page-aligned virtual address of the first byte.
+     * @return	the length of the file, or -1 if the map would overlap the
+     *		program or another map.
+     */
+    protected int mapFile(OpenFile file, int address) {
+	int length = file.length();
+	if (length < 0 || Processor.offsetFromAddress(address) != 0)
+	    return -1;
+
+	MappedFile mappedFile =
+	    new MappedFile(file, Processor.pageFromAddress(address), length);
+
+	if (mappedFile.firstVPN < numPages ||
+	    (long) mappedFile.firstVPN+mappedFile.numPages > Processor.maxPages)
+	    return -1;
+
+	VMKernel.pageLock.acquire();
+
+	for (MappedFile other : mappedFiles) {
+	    if (mappedFile.firstVPN < other.firstVPN+other.numPages &&
+		other.firstVPN < mappedFile.firstVPN+mappedFile.numPages) {
+		VMKernel.pageLock.release();
+		return -1;
+	    }
+	}
+
+	for (int i=0; i<mappedFile.numPages; i++) {
+	    int vpn = mappedFile.firstVPN+i;
+	    pageTable.put(vpn, new TranslationEntry(vpn, -1, false, false,
+						    false, false));
+	}
+
+	mappedFiles.add(mappedFile);
+
+	VMKernel.pageLock.release();
+
+	Lib.debug(dbgVM, "\tmapped " + file.getName() + " at vpn "
+		  + mappedFile.firstVPN + " (" + mappedFile.numPages
+		  + " pages)");
+
+	return length;
+    }
+
+    /**
+     * Remove the map starting at the specified address, writing its dirty
+     * pages back to the file.
+     *
+     * @param	address	the virtual address of the first byte of the map.
+     * @return	the file that was mapped there, or <tt>null</tt> if there was
+     *		no map.
+     */
+    protected OpenFile unmapAddress(int address) {
+	if (Processor.offsetFromAddress(address) != 0)
+	    return null;
+
+	int vpn = Processor.pageFromAddress(address);
+	OpenFile file = null;
+
+	VMKernel.pageLock.acquire();
+
+	for (MappedFile mappedFile : mappedFiles) {
+	    if (mappedFile.firstVPN == vpn) {
+		file = mappedFile.file;
+		unmap(mappedFile);
+		break;
+	    }
+	}
+
+	VMKernel.pageLock.release();
+
+	return file;
+    }
+
+    /**
+     * Remove the map of the specified file, writing its dirty pages back to
+     * the file.
+     *
+     * @param	file	the mapped file.
+     */
+    protected void unmapFile(OpenFile file) {
+	VMKernel.pageLock.acquire();
+
+	for (MappedFile mappedFile : mappedFiles) {
+	    if (mappedFile.file == file) {
+		unmap(mappedFile);
+		break;
+	    }
+	}
+
+	VMKernel.pageLock.release();
+    }
+
+    /**
+     * Write back and free every resident page of a map, and remove its page
+     * table entries. Called with the page lock held, which is let go while
+     * the dirty pages are written.
+     */
+    private void unmap(MappedFile mappedFile) {
+	for (int i=0; i<mappedFile.numPages; i++) {
+	    int vpn = mappedFile.firstVPN+i;
+	    if (pageTable.isValid(vpn))
+		evictMappedPage(mappedFile, vpn);
+
+	    pageTable.put(vpn, null);
+	}
+
+	mappedFiles.remove(mappedFile);
+
+	// the file may be closed as soon as we return
+	writePendingPages(mappedFile);
+
+	Lib.debug(dbgVM, "\tunmapped " + mappedFile.file.getName());
+    }
+
+    /**
+     * Return the map containing the specified virtual page, or <tt>null</tt>
+     * if there is none.
+     */
+    private MappedFile findMappedFile(int vpn) {
+	for (MappedFile mappedFile : mappedFiles) {
+	    if (vpn >= mappedFile.firstVPN &&
+		vpn < mappedFile.firstVPN+mappedFile.numPages)
+		return mappedFile;
+	}
+
+	return null;
+    }
+
+    /**
+     * Test whether a virtual page belongs to the program or to a map.
+     */
+    private boolean isAddressable(int vpn) {
+	return (vpn >= 0 && vpn < numPages) || findMappedFile(vpn) != null;
+    }
+
+    /**
+     * Read a page of a mapped file directly into a newly allocated physical
+     * page, zero-filling whatever lies past the end of the file. A page whose
+     * write-back is still pending is copied from the pending write instead.
+     * Called with the page lock held, which is let go while the file is read;
+     * the new physical page is not in the core map yet, so it cannot be
+     * evicted meanwhile, and other faults on the page wait for the read.
+     *
+     * @return	the physical page, or -1 if none was available or the map
+     *		was removed while the file was read.
+     */
+    private int fetchMappedPage(MappedFile mappedFile, int vpn) {
+	int ppn = VMKernel.coreMap.allocate();
+	if (ppn == -1)
+	    return -1;
+
+	int index = vpn-mappedFile.firstVPN;
+	byte[] memory = Machine.processor().getMemory();
+
+	byte[] page = mappedFile.pending.get(index);
+	if (page != null) {
+	    System.arraycopy(page, 0, memory, ppn*pageSize, pageSize);
+	    return ppn;
+	}
+
+	int pos = index*pageSize;
+	mappedFile.loading.add(vpn);
+
+	VMKernel.pageLock.release();
+	int amount = mappedFile.file.read(pos, memory, ppn*pageSize,
+					  Math.min(pageSize,
+						   mappedFile.length-pos));
+	VMKernel.pageLock.acquire();
+
+	mappedFile.loading.remove(vpn);
+	mappedFile.pageLoaded.wakeAll();
+
+	if (findMappedFile(vpn) != mappedFile) {
+	    UserKernel.addFreePage(ppn);
+	    return -1;
+	}
+
+	amount = Math.max(0, amount);
+
+	Arrays.fill(memory, ppn*pageSize+amount, (ppn+1)*pageSize, (byte) 0);
+
+	return ppn;
+    }
+
+    /**
+     * Remove a resident page of a mapped file from memory. A dirty page is
+     * copied to a pending write, for the page-out daemon or
+     * <tt>unmap()</tt> to write back to the file. Called with the page lock
+     * held.
+     */
+    private void evictMappedPage(MappedFile mappedFile, int vpn) {
+	Lib.assertTrue(mappedFile != null && pageTable.isValid(vpn));
+
+	invalidateTLBEntry(vpn);
+	TranslationEntry entry = pageTable.get(vpn);
+
+	VMKernel.coreMap.unmap(entry.ppn, this, vpn);
+	numResident--;
+
+	pageTable.setValid(vpn, false);
+
+	if (entry.dirty) {
+	    byte[] page = new byte[pageSize];
+	    System.arraycopy(Machine.processor().getMemory(), entry.ppn*pageSize,
+			     page, 0, pageSize);
+
+	    mappedFile.pending.put(vpn-mappedFile.firstVPN, page);
+	    if (!pendingMaps.contains(mappedFile))
+		pendingMaps.add(mappedFile);
+
+	    VMKernel.pageOutDaemon.wakeIfNeeded();
+	}
+
+	Lib.debug(dbgVM, "\tevicted mapped vpn " + vpn + " from ppn "
+		  + entry.ppn + (entry.dirty ? " (write-back pending)" : ""));
+
+	UserKernel.addFreePage(entry.ppn);
+
+	entry.valid = false;
+	entry.used = false;
+	entry.dirty = false;
+	pageTable.put(vpn, entry);
+    }
+
+    /**
+     * Test whether any evicted pages of mapped files are waiting to be
+     * written back. Called with the page lock held.
+     *
+     * @return	<tt>true</tt> if there are pending writes.
+     */
+    static boolean hasPendingMappedPages() {
+	return !pendingMaps.isEmpty();
+    }
+
+    /**
+     * Write every evicted page of a mapped file that is waiting to be written
+     * back. Blocks for the writes, so it must be called without the page
+     * lock.
+     */
+    static void flushPendingMappedPages() {
+	VMKernel.pageLock.acquire();
+
+	while (!pendingMaps.isEmpty())
+	    writePendingPages(pendingMaps.getFirst());
+
+	VMKernel.pageLock.release();
+    }
+
+    /**
+     * Write the pending pages of a map to its file. Only the part of each page
+     * within the file is written, so a map never changes the file's length.
+     * Called with the page lock held, which is let go while the file is
+     * written.
+     */
+    private static void writePendingPages(MappedFile mappedFile) {
+	// an older copy of a page must not land after a newer one
+	while (mappedFile.writing)
+	    mappedFile.pagesWritten.sleep();
+
+	if (mappedFile.pending.isEmpty()) {
+	    pendingMaps.remove(mappedFile);
+	    return;
+	}
+
+	// take a snapshot, since pages can be evicted again while we block
+	TreeMap<Integer, byte[]> pages =
+	    new TreeMap<Integer, byte[]>(mappedFile.pending);
+	mappedFile.writing = true;
+
+	VMKernel.pageLock.release();
+
+	for (Map.Entry<Integer, byte[]> entry : pages.entrySet()) {
+	    int pos = entry.getKey()*pageSize;
+	    mappedFile.file.write(pos, entry.getValue(), 0,
+				  Math.min(pageSize, mappedFile.length-pos));
+	}
+
+	VMKernel.pageLock.acquire();
+
+	Lib.debug(dbgVM, "\twrote " + pages.size() + " pages back to "
+		  + mappedFile.file.getName());
+
+	// a page evicted again meanwhile has a newer pending write
+	for (Map.Entry<Integer, byte[]> entry : pages.entrySet()) {
+	    if (mappedFile.pending.get(entry.getKey()) == entry.getValue())
+		mappedFile.pending.remove(entry.getKey());
+	}
+
+	if (mappedFile.pending.isEmpty())
+	    pendingMaps.remove(mappedFile);
+
+	mappedFile.writing = false;
+	mappedFile.pagesWritten.wakeAll();
+    }
+
+    /**
+     * Return the index of the COFF section containing the specified virtual
+     * page, or -1 if the page belongs to the stack or arguments.
+     */
+    private int findSection(int vpn) {
+	for (int s=0; s<coff.getNumSections(); s++) {
+	    CoffSection section = coff.getSection(s);
+	    if (vpn >= section.getFirstVPN() &&
+		vpn < section.getFirstVPN()+section.getLength())
+		return s;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Handle a TLB miss by looking up the missing page in the inverted page
+     * table, faulting it in if it is not resident, and then replacing a TLB
+     * entry with its translation.
+     *
+     * @param	vaddr	the virtual address that missed in the TLB.
+     * @return	<tt>true</tt> if the miss was handled.
+     */
+    private boolean handleTLBMiss(int vaddr) {
+	Processor processor = Machine.processor();
+
+	stats.numTLBMisses++;
+
+	int vpn = Processor.pageFromAddress(vaddr);
+	if (!isAddressable(vpn))
+	    return false;
+
+	int ppn = VMKernel.coreMap.lookup(this, vpn);
+	if (ppn == -1) {
+	    TranslationEntry entry = getPageEntry(vpn);
+	    if (entry == null)
+		return false;
+
+	    ppn = entry.ppn;
+	}
+	else {
+	    notePrefetchHit(vpn);
+	}
+
+	// a large page is translated by one entry for its first page
+	int size = processor.getLargePageSize();
+	boolean large = (size > 1 && pageTable.isLarge(vpn & ~(size-1)));
+	if (large) {
+	    vpn &= ~(size-1);
+	    ppn = pageTable.getPPN(vpn);
+	}
+
+	// the translation can only go in the set for this page
+	int set = processor.getTLBSet(vpn);
+	int ways = processor.getTLBWays();
+
+	int victim = -1;
+	for (int i=set*ways; i<(set+1)*ways; i++) {
+	    if (!processor.readTLBEntry(i).valid) {
+		victim = i;
+		break;
+	    }
+	}
+
+	if (victim == -1) {
+	    if (nextTLBVictim == null)
+		nextTLBVictim = new int[processor.getTLBSize()/ways];
+
+	    victim = set*ways + nextTLBVictim[set];
+	    nextTLBVictim[set] = (nextTLBVictim[set]+1) % ways;
+	    syncTLBEntry(victim);
+	}
+
+	TranslationEntry entry =
+	    new TranslationEntry(vpn, ppn, true, pageTable.isReadOnly(vpn),
+				 false, false);
+	entry.large = large;
+	processor.writeTLBEntry(victim, entry);
+	return true;
+    }
+
+    /**
+     * Write back the TLB and save its entries with this process, then
+     * invalidate them so the next process cannot use them. The saved entries
+     * are reinstated by <tt>restoreTLB()</tt> instead of being discarded.
+     */
+    private void saveTLB() {
+	Processor processor = Machine.processor();
+
+	if (savedTLB == null)
+	    savedTLB = new TranslationEntry[processor.getTLBSize()];
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    syncTLBEntry(i);
+	    savedTLB[i] = processor.readTLBEntry(i);
+	    processor.writeTLBEntry(i, new TranslationEntry());
+	}
+    }
+
+    /**
+     * Reinstate the TLB entries saved by <tt>saveTLB()</tt>, dropping any
+     * whose page was evicted or moved while this process was not running.
+     */
+    private void restoreTLB() {
+	Processor processor = Machine.processor();
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    TranslationEntry entry = (savedTLB == null) ? null : savedTLB[i];
+
+	    if (entry != null && entry.valid &&
+		VMKernel.coreMap.lookup(this, entry.vpn) == entry.ppn &&
+		(!entry.large || pageTable.isLarge(entry.vpn))) {
+		// the page may have been merged since, so recheck protection
+		entry.readOnly = pageTable.isReadOnly(entry.vpn);
+		entry.used = false;
+		entry.dirty = false;
+		processor.writeTLBEntry(i, entry);
+	    }
+	    else {
+		processor.writeTLBEntry(i, new TranslationEntry());
+	    }
+	}
+    }
+
+    /**
+     * Copy the used and dirty bits of the specified TLB entry back into this
+     * process's page table. The bits of a large entry are copied to every
+     * page it translates.
+     */
+    private void syncTLBEntry(int number) {
+	Processor processor = Machine.processor();
+	TranslationEntry tlbEntry = processor.readTLBEntry(number);
+	if (!tlbEntry.valid)
+	    return;
+
+	int count = tlbEntry.large ? processor.getLargePageSize() : 1;
+	for (int i=0; i<count; i++) {
+	    int vpn = tlbEntry.vpn+i;
+	    if (pageTable.isValid(vpn) &&
+		pageTable.getPPN(vpn) == tlbEntry.ppn+i) {
+		if (tlbEntry.used)
+		    pageTable.setUsed(vpn, true);
+		if (tlbEntry.dirty)
+		    pageTable.setDirty(vpn, true);
+	    }
+	}
+    }
+
+    /**
+     * Copy the used and dirty bits of every TLB entry back into this
+     * process's page table, and clear them in the TLB so that later
+     * references are noticed. Called before choosing a page to evict.
+     */
+    void syncTLB() {
+	Processor processor = Machine.processor();
+	if (!processor.hasTLB())
+	    return;
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    syncTLBEntry(i);
+
+	    TranslationEntry tlbEntry = processor.readTLBEntry(i);
+	    if (tlbEntry.valid) {
+		tlbEntry.used = false;
+		tlbEntry.dirty = false;
+		processor.writeTLBEntry(i, tlbEntry);
+	    }
+	}
+    }
+
+    /**
+     * Write back and invalidate every TLB entry.
+     */
+    private void flushTLB() {
+	Processor processor = Machine.processor();
+
+	stats.numTLBFlushes++;
+	Machine.stats().numTLBFlushes++;
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    syncTLBEntry(i);
+	    processor.writeTLBEntry(i, new TranslationEntry());
+	}
+    }
 
     /**
      * Handle a user exception. Called by
@@ -61,12 +1407,116 @@ public class VMProcess extends UserProcess {
 	Processor processor = Machine.processor();
 
 	switch (cause) {
+	case Processor.exceptionTLBMiss:
+	    if (!handleTLBMiss(processor.readRegister(Processor.regBadVAddr)))
+		super.handleException(cause);
+	    break;
+
+	case Processor.exceptionPageFault:
+	    int vaddr = processor.readRegister(Processor.regBadVAddr);
+	    if (getPageEntry(Processor.pageFromAddress(vaddr)) == null)
+		super.handleException(cause);
+	    break;
+
+	case Processor.exceptionReadOnly:
+	    int vpn = Processor.pageFromAddress(
+		processor.readRegister(Processor.regBadVAddr));
+	    if (vpn < 0 || vpn >= numPages || !copyOnWrite[vpn] ||
+		!breakCopyOnWrite(vpn))
+		super.handleException(cause);
+	    break;
+
 	default:
 	    super.handleException(cause);
 	    break;
 	}
     }
-	
+
+    /** The TLB entries of this process while it is not running. */
+    private TranslationEntry[] savedTLB = null;
+
+    /** The TLB miss and flush counts of this process. */
+    private Stats stats = new Stats();
+
+    /** The number of pages this process may hold before replacing its own. */
+    private int frameQuota;
+    /** The number of resident pages mapped by this process. */
+    private int numResident = 0;
+    /** The time of the last page fault, for page-fault frequency. */
+    private long lastFaultTime;
+    /** The next page to consider when replacing one of our own pages. */
+    private int localHand = 0;
+
+    /** Pages used since the clock last looked at them. */
+    private boolean[] referenced = null;
+    /** The last working set sample in which each page was used. */
+    private int[] lastUsedSample = null;
+    /** The working set size estimated at the last sample. */
+    private int workingSetSize = 0;
+
+    private int lastFaultVPN = -2;
+    private int faultDirection = 1;
+    /** The page whose fault would continue the current sequential run. */
+    private int nextSequentialVPN = -1;
+
+    /** Pages merged with identical pages, shared until written. */
+    private boolean[] copyOnWrite = null;
+
+    /** Pages prefetched but not yet used. */
+    private boolean[] prefetched = null;
+    /** The number of pages to prefetch after a sequential fault. */
+    private int prefetchWindow;
+    private int prefetchHitStreak = 0;
+    private int numPrefetched = 0, numPrefetchHits = 0, numPrefetchMisses = 0;
+
+    /** The number of times a region was promoted to a large page. */
+    private int numPromotions = 0;
+
+    private boolean suspending = false;
+    private boolean suspended = false;
+    private Semaphore resumeSemaphore = new Semaphore(0);
+
+    /** The swap slot holding each virtual page, or -1 if none. */
+    private int[] swapSlots = null;
+
+    /** The files mapped into this process, above its program's pages. */
+    private LinkedList<MappedFile> mappedFiles = new LinkedList<MappedFile>();
+
+    private static class MappedFile {
+	MappedFile(OpenFile file, int firstVPN, int length) {
+	    this.file = file;
+	    this.firstVPN = firstVPN;
+	    this.length = length;
+
+	    numPages = (length + pageSize-1) / pageSize;
+
+	    pageLoaded = new Condition(VMKernel.pageLock);
+	    pagesWritten = new Condition(VMKernel.pageLock);
+	}
+
+	OpenFile file;
+	int firstVPN, numPages;
+	/** The length of the file when it was mapped. */
+	int length;
+
+	/** The pages being read from the file, by virtual page number. */
+	HashSet<Integer> loading = new HashSet<Integer>();
+	Condition pageLoaded;
+
+	/** Copies of evicted dirty pages not yet written, by page of the map. */
+	TreeMap<Integer, byte[]> pending = new TreeMap<Integer, byte[]>();
+	/** Set while pending pages are being written. */
+	boolean writing = false;
+	Condition pagesWritten;
+    }
+
+    /** The maps with pending writes, across every process. */
+    private static LinkedList<MappedFile> pendingMaps =
+	new LinkedList<MappedFile>();
+
+    /** The next way to replace in each TLB set when every way is valid. */
+    private static int[] nextTLBVictim = null;
+
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';
     private static final char dbgVM = 'v';